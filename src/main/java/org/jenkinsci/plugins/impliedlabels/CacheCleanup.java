@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.NodeListener;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Drop cached closures of nodes that no longer exist, so controllers with short-lived cloud agents do not accumulate
+ * closures and atoms of agents long gone.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class CacheCleanup extends NodeListener {
+
+    @Override
+    protected void onDeleted(@NonNull Node node) {
+        ImpliedLabelsPlugin.get().getConfig().forget(node.getNodeName());
+    }
+
+    @Override
+    protected void onUpdated(@NonNull Node oldOne, @NonNull Node newOne) {
+        if (!oldOne.getNodeName().equals(newOne.getNodeName())) {
+            ImpliedLabelsPlugin.get().getConfig().forget(oldOne.getNodeName());
+        }
+    }
+
+    /**
+     * Catch nodes removed without notifying listeners and closures collected under memory pressure.
+     */
+    @Extension
+    public static final class PeriodicWork extends AsyncPeriodicWork {
+
+        public PeriodicWork() {
+            super("Implied labels cache cleanup");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(10);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            ImpliedLabelsPlugin.get().getConfig().prune();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.Util;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.model.labels.LabelAtom;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Closures cached by {@link Config}, persisted so the cache is warm when agents reconnect after restart.
+ *
+ * Written on shutdown and periodically when the cache changed. Read on startup only if computed with the same
+ * implications.
+ */
+@Restricted(NoExternalUse.class)
+public final class CacheSnapshot {
+
+    private static final Logger LOGGER = Logger.getLogger(CacheSnapshot.class.getName());
+
+    /** Digest of implications the closures were computed with. */
+    private final @NonNull String digest;
+
+    private final List<Entry> entries;
+
+    /*package*/ CacheSnapshot(@NonNull String digest, @NonNull List<Entry> entries) {
+        this.digest = digest;
+        this.entries = entries;
+    }
+
+    /*package*/ @NonNull String digest() {
+        return digest;
+    }
+
+    /*package*/ @NonNull List<Entry> entries() {
+        return entries == null ? Collections.emptyList() : entries;
+    }
+
+    /*package*/ static @NonNull String digest(@NonNull List<Implication> implications) {
+        final StringBuilder sb = new StringBuilder();
+        for (Implication implication : implications) {
+            sb.append(implication).append('\n');
+        }
+        return Util.getDigestOf(sb.toString());
+    }
+
+    /*package*/ static @NonNull XmlFile file() {
+        return new XmlFile(Jenkins.XSTREAM, new File(Jenkins.get().root, CacheSnapshot.class.getName() + ".xml"));
+    }
+
+    /*package*/ static final class Entry {
+        private final @NonNull List<String> initial;
+
+        /** Index of implication in {@link Config#implications()} that inferred each label not present initially. */
+        private final @NonNull Map<String, Integer> inferred;
+
+        /*package*/ Entry(@NonNull List<String> initial, @NonNull Map<LabelAtom, Integer> inferred) {
+            this.initial = new ArrayList<>(initial);
+            this.inferred = new TreeMap<>();
+            for (Map.Entry<LabelAtom, Integer> e : inferred.entrySet()) {
+                this.inferred.put(e.getKey().getName(), e.getValue());
+            }
+        }
+
+        /*package*/ @NonNull Set<LabelAtom> initial() {
+            final Set<LabelAtom> atoms = new HashSet<>(initial.size());
+            for (String name : initial) {
+                atoms.add(LabelAtom.get(name));
+            }
+            return atoms;
+        }
+
+        /*package*/ @NonNull Map<LabelAtom, Integer> inferred() {
+            final Map<LabelAtom, Integer> atoms = new HashMap<>();
+            for (Map.Entry<String, Integer> e : inferred.entrySet()) {
+                atoms.put(LabelAtom.get(e.getKey()), e.getValue());
+            }
+            return atoms;
+        }
+    }
+
+    private static @CheckForNull Config config() {
+        final Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) return null;
+
+        final List<Config> configs = jenkins.getExtensionList(Config.class);
+        return configs.isEmpty() ? null : configs.get(0);
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void restore() {
+        final Config config = config();
+        if (config == null) return;
+
+        try {
+            config.loadCache();
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Failed to read cached implied labels", ex);
+        }
+    }
+
+    @Terminator
+    public static void persist() {
+        final Config config = config();
+        if (config == null) return;
+
+        try {
+            config.saveCache();
+        } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to write cached implied labels", ex);
+        }
+    }
+
+    @Extension
+    public static final class PeriodicWork extends AsyncPeriodicWork {
+
+        public PeriodicWork() {
+            super("Implied labels cache snapshot");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.MINUTES.toMillis(5);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException {
+            final Config config = config();
+            if (config != null) {
+                config.saveCache();
+            }
+        }
+    }
+}
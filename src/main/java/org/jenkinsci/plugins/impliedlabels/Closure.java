@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.labels.LabelAtom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Labels implied from a set of initial labels, along with the implications that inferred them.
+ */
+/*package*/ final class Closure {
+
+    private static final int INITIAL = -1;
+
+    /** Implications the closure was computed with. */
+    private final @NonNull List<Implication> implications;
+
+    private final @NonNull LabelAtomSet labels;
+
+    /** Index of implication that inferred the label at the same position in {@link #labels}, or {@link #INITIAL}. */
+    private final @NonNull int[] inferredBy;
+
+    /**
+     * @param provenance Index of implication that inferred every label not present initially.
+     */
+    /*package*/ Closure(
+            @NonNull List<Implication> implications,
+            @NonNull LabelAtomSet labels,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        this.implications = implications;
+        this.labels = labels;
+        this.inferredBy = new int[labels.size()];
+        int index = 0;
+        for (LabelAtom atom : labels) {
+            inferredBy[index++] = provenance.getOrDefault(atom, INITIAL);
+        }
+    }
+
+    /*package*/ @NonNull List<Implication> implications() {
+        return implications;
+    }
+
+    /*package*/ @NonNull LabelAtomSet labels() {
+        return labels;
+    }
+
+    /**
+     * Index of implication that inferred every label not present initially.
+     */
+    /*package*/ @NonNull Map<LabelAtom, Integer> provenance() {
+        final Map<LabelAtom, Integer> provenance = new HashMap<>();
+        int index = 0;
+        for (LabelAtom atom : labels) {
+            if (inferredBy[index] != INITIAL) {
+                provenance.put(atom, inferredBy[index]);
+            }
+            index++;
+        }
+        return provenance;
+    }
+
+    /**
+     * Implication that inferred each label, {@code null} for labels present initially.
+     */
+    /*package*/ @NonNull Map<LabelAtom, Implication> explain() {
+        final Map<LabelAtom, Implication> explanation = new LinkedHashMap<>();
+        int index = 0;
+        for (LabelAtom atom : labels) {
+            explanation.put(atom, inferredBy[index] == INITIAL ? null : implications.get(inferredBy[index]));
+            index++;
+        }
+        return Collections.unmodifiableMap(explanation);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.model.labels.LabelExpression;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Labels implied by every single atom, precomputed for implications whose expression is an atom or disjunction of
+ * atoms and that have no scope.
+ *
+ * Such an implication applies whenever any of its atoms is present, so labels these implications infer for a node are
+ * the union of closures of its atoms. Remaining implications, with conjunctions, negations or scopes, are evaluated in
+ * topological order, adding closures of atoms they infer. Inferred labels are the same as when all implications are
+ * evaluated, provided implications producing atoms are evaluated before implications consuming them.
+ */
+/*package*/ final class ClosureTable {
+
+    /** Implications compiled into the table. */
+    private final @NonNull Set<Implication> compiled = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /** Labels implied by the atom along with implication that inferred each of them. Atoms implying nothing are omitted. */
+    private final @NonNull Map<LabelAtom, Map<LabelAtom, Implication>> closures = new HashMap<>();
+
+    /** Evaluation plans of implication selections, see {@link Partitions#select}. */
+    private final @NonNull Map<List<Implication>, Plan> plans = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    /*package*/ ClosureTable(@NonNull List<Implication> implications) {
+        final Map<LabelAtom, List<Implication>> triggeredBy = new HashMap<>();
+        for (Implication implication : implications) {
+            if (implication.scope() != null || implication.expression() == null) continue;
+
+            final Set<LabelAtom> triggers = triggers(implication.expression());
+            if (triggers == null) continue;
+
+            compiled.add(implication);
+            for (LabelAtom atom : triggers) {
+                triggeredBy.computeIfAbsent(atom, a -> new ArrayList<>()).add(implication);
+            }
+        }
+
+        for (LabelAtom atom : triggeredBy.keySet()) {
+            final Map<LabelAtom, Implication> closure = new LinkedHashMap<>();
+            final Deque<LabelAtom> pending = new ArrayDeque<>();
+            pending.add(atom);
+            while (!pending.isEmpty()) {
+                for (Implication implication : triggeredBy.getOrDefault(pending.poll(), Collections.emptyList())) {
+                    for (LabelAtom inferred : implication.atoms()) {
+                        if (!inferred.equals(atom) && closure.putIfAbsent(inferred, implication) == null) {
+                            pending.add(inferred);
+                        }
+                    }
+                }
+            }
+            closures.put(atom, closure);
+        }
+    }
+
+    /**
+     * Atoms of expression that is an atom or disjunction of atoms.
+     *
+     * @return {@code null} for any other expression.
+     */
+    private static @CheckForNull Set<LabelAtom> triggers(@NonNull Label expression) {
+        if (expression instanceof LabelAtom atom) return Collections.singleton(atom);
+        if (expression instanceof LabelExpression.Paren paren) return triggers(paren.base);
+        if (expression instanceof LabelExpression.Or or) {
+            final Set<LabelAtom> lhs = triggers(or.lhs);
+            final Set<LabelAtom> rhs = triggers(or.rhs);
+            if (lhs == null || rhs == null) return null;
+
+            final Set<LabelAtom> triggers = new HashSet<>(lhs);
+            triggers.addAll(rhs);
+            return triggers;
+        }
+        return null;
+    }
+
+    /**
+     * Infer labels from initial ones.
+     *
+     * @param implications Implications selected for the initial labels, topologically sorted.
+     * @param provenance Populated with index of an implication that inferred each label not present initially.
+     */
+    /*package*/ @NonNull Set<LabelAtom> infer(
+            @NonNull List<Implication> implications,
+            @NonNull Collection<LabelAtom> initial,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        final Plan plan = plans.computeIfAbsent(implications, this::plan);
+
+        final Set<LabelAtom> labels = new HashSet<>(initial);
+        for (LabelAtom atom : initial) {
+            expand(atom, labels, plan, provenance);
+        }
+
+        for (int k : plan.evaluated) {
+            final Implication implication = implications.get(k);
+            // Nothing to infer, no need to evaluate the expression
+            if (labels.containsAll(implication.atoms())) continue;
+
+            for (LabelAtom atom : implication.infer(labels)) {
+                if (labels.add(atom)) {
+                    provenance.put(atom, k);
+                    expand(atom, labels, plan, provenance);
+                }
+            }
+        }
+        return labels;
+    }
+
+    // Every label present has its closure present as well
+    private void expand(
+            @NonNull LabelAtom atom,
+            @NonNull Set<LabelAtom> labels,
+            @NonNull Plan plan,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        final Map<LabelAtom, Implication> closure = closures.get(atom);
+        if (closure == null) return;
+
+        for (Map.Entry<LabelAtom, Implication> inferred : closure.entrySet()) {
+            if (labels.add(inferred.getKey())) {
+                provenance.put(inferred.getKey(), plan.positions.get(inferred.getValue()));
+            }
+        }
+    }
+
+    private @NonNull Plan plan(@NonNull List<Implication> implications) {
+        final List<Integer> evaluated = new ArrayList<>();
+        final Map<Implication, Integer> positions = new IdentityHashMap<>();
+        for (int k = 0; k < implications.size(); k++) {
+            final Implication implication = implications.get(k);
+            if (compiled.contains(implication)) {
+                positions.put(implication, k);
+            } else {
+                evaluated.add(k);
+            }
+        }
+        return new Plan(evaluated.stream().mapToInt(Integer::intValue).toArray(), positions);
+    }
+
+    /**
+     * Forget plans of selections no longer in use.
+     */
+    /*package*/ void clearPlans() {
+        plans.clear();
+    }
+
+    private static final class Plan {
+        /** Indexes of implications that are not compiled into the table, in evaluation order. */
+        private final @NonNull int[] evaluated;
+
+        /** Index of each compiled implication among the selected ones. */
+        private final @NonNull Map<Implication, Integer> positions;
+
+        private Plan(@NonNull int[] evaluated, @NonNull Map<Implication, Integer> positions) {
+            this.evaluated = evaluated;
+            this.positions = positions;
+        }
+    }
+}
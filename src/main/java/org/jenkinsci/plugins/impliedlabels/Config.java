@@ -24,6 +24,7 @@
 package org.jenkinsci.plugins.impliedlabels;
 
 import antlr.ANTLRException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.CopyOnWrite;
@@ -39,18 +40,35 @@ import hudson.model.labels.LabelAtom;
 import hudson.util.CyclicGraphDetector.CycleDetectedException;
 import hudson.util.FormValidation;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
 import java.util.logging.Logger;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import net.jcip.annotations.GuardedBy;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONException;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.QueryParameter;
@@ -64,13 +82,76 @@ public class Config extends ManagementLink {
 
     private static final @NonNull Logger CACHE_LOGGER = Logger.getLogger("ConfigCaching");
 
+    private static final int REORDER_INTERVAL = 1024;
+
+    /** Most closures of label strings inferred on request kept. */
+    private static final int AD_HOC_LIMIT = 1024;
+
+    /** Most expressions of rows validated on the configure page kept parsed. */
+    private static final int EXPRESSIONS_LIMIT = 1024;
+
+    /** Expressions with more labels are assumed to apply rather than checking all their combinations. */
+    private static final int REACHABILITY_ATOMS_LIMIT = 10;
+
+    /** Infer labels from closures of atoms precomputed when implications change. See {@link ClosureTable}. */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Configurable from script console")
+    public static boolean PRECOMPILED = SystemProperties.getBoolean(Config.class.getName() + ".precompiled");
+
     /** Topologically sorted implications. */
     @GuardedBy("configLock")
     @CopyOnWrite
     private @NonNull List<Implication> implications = Collections.emptyList();
 
     @GuardedBy("configLock")
-    private final transient @NonNull Map<Collection<LabelAtom>, Collection<LabelAtom>> cache = new HashMap<>();
+    private transient @CheckForNull Partitions partitions;
+
+    /**
+     * Closures keyed by sorted names of initial labels. Neither keys nor collected closures keep atoms Jenkins has
+     * dropped from its label table reachable.
+     */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<List<String>, SoftReference<Closure>> cache = new HashMap<>();
+
+    /** Canonical instances of closures so equal ones are shared among cache entries, dropped once not used. */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<LabelAtomSet, WeakReference<LabelAtomSet>> interned = new WeakHashMap<>();
+
+    /** Closures of cloud template label strings, released under memory pressure like {@link #cache}. */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<String, SoftReference<LabelAtomSet>> templates = new HashMap<>();
+
+    /**
+     * Closures of label strings inferred on request, in insertion order. Kept apart from {@link #cache} so arbitrary
+     * input is neither persisted nor counted towards reordering, and bounded by {@link #AD_HOC_LIMIT}.
+     */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<List<String>, SoftReference<LabelAtomSet>> adHoc = new LinkedHashMap<>();
+
+    /**
+     * Names of initial labels node had when last evaluated, so the closure can be updated incrementally. Kept when
+     * implications change as configure page validation relies on them.
+     */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<String, List<String>> lastInitial = new HashMap<>();
+
+    /** Number of closures computed, implications are reordered by their selectivity every {@link #REORDER_INTERVAL}. */
+    @GuardedBy("configLock")
+    private transient int misses;
+
+    /** Labels node had when last evaluated, kept when implications change so listeners learn what changed. */
+    @GuardedBy("configLock")
+    private final transient @NonNull Map<String, LabelAtomSet> lastLabels = new HashMap<>();
+
+    /**
+     * Parsed expressions of rows validated on the configure page in insertion order, so editing one row does not parse
+     * all of them again. Bounded by {@link #EXPRESSIONS_LIMIT}, invalid expressions are not kept.
+     */
+    @GuardedBy("expressions")
+    private final transient @NonNull Map<String, SoftReference<Label>> expressions = new LinkedHashMap<>();
+
+    /** Cache changed since last written to disk. See {@link CacheSnapshot}. */
+    @GuardedBy("configLock")
+    private transient boolean cacheDirty;
 
     private final transient Object configLock = new Object();
 
@@ -116,20 +197,217 @@ public class Config extends ManagementLink {
         rsp.sendRedirect("");
     }
 
+    /**
+     * Replace implications with ones read from request body.
+     *
+     * Each line is either {@code expression => labels} or JSON object with {@code expression} and {@code atoms}
+     * members. Empty lines and lines starting with {@code #} are ignored. Implications are applied only when all
+     * lines are valid, errors are reported per line otherwise.
+     *
+     * @param append Add implications to the existing ones instead of replacing them.
+     */
+    @POST
+    public void doImport(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter boolean append)
+            throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        final List<String> errors = new ArrayList<>();
+        final List<Implication> imported;
+        try (BufferedReader reader = req.getReader()) {
+            imported = parseImplications(reader, errors);
+        }
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        if (errors.isEmpty()) {
+            final List<Implication> implications = new ArrayList<>();
+            if (append) {
+                implications.addAll(implications());
+            }
+            implications.addAll(imported);
+            try {
+                this.implications(implications);
+            } catch (IOException ex) {
+                errors.add(ex.getMessage());
+            }
+        }
+
+        if (!errors.isEmpty()) {
+            rsp.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        }
+        try (PrintWriter writer = rsp.getWriter()) {
+            for (String error : errors) {
+                writer.println(error);
+            }
+            if (errors.isEmpty()) {
+                writer.println(Messages.imported_implications(imported.size()));
+            }
+        }
+    }
+
+    /**
+     * Write implications in the format accepted by {@link #doImport}.
+     *
+     * @param format {@code json} to write JSON object per line, {@code expression => labels} lines otherwise.
+     */
+    public void doExport(StaplerResponse2 rsp, @QueryParameter String format) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        final boolean json = "json".equals(format);
+        rsp.setContentType(json ? "application/x-ndjson;charset=UTF-8" : "text/plain;charset=UTF-8");
+        try (PrintWriter writer = rsp.getWriter()) {
+            for (Implication i : implications()) {
+                if (i.expression() == null) continue; // Expression was not valid, there is nothing to export
+
+                // Scope can only be expressed in JSON
+                if (json || i.scope() != null) {
+                    final JSONObject line = new JSONObject();
+                    line.put("expression", i.expressionString());
+                    line.put("atoms", i.atomsString());
+                    if (i.scope() != null) {
+                        line.put("scope", i.scope());
+                    }
+                    writer.println(line);
+                } else {
+                    writer.println(i.expressionString() + " => " + i.atomsString());
+                }
+            }
+        }
+    }
+
+    /*package*/ static @NonNull List<Implication> parseImplications(
+            @NonNull BufferedReader reader, @NonNull List<String> errors) throws IOException {
+        final List<Implication> implications = new ArrayList<>();
+        int number = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            final String expression;
+            final String atoms;
+            String scope = null;
+            if (line.startsWith("{")) {
+                try {
+                    final JSONObject object = JSONObject.fromObject(line);
+                    expression = object.optString("expression");
+                    atoms = object.optString("atoms");
+                    scope = Util.fixEmptyAndTrim(object.optString("scope"));
+                } catch (JSONException ex) {
+                    errors.add(Messages.malformed_implication(number, line));
+                    continue;
+                }
+            } else {
+                final int arrow = line.indexOf("=>");
+                // Another arrow would end up as an implied atom
+                if (arrow == -1 || line.indexOf("=>", arrow + 2) != -1) {
+                    errors.add(Messages.malformed_implication(number, line));
+                    continue;
+                }
+                expression = line.substring(0, arrow);
+                atoms = line.substring(arrow + 2);
+            }
+
+            final Label label;
+            try {
+                label = Label.parseExpression(expression);
+            } catch (ANTLRException ex) {
+                errors.add(Messages.invalid_implication_expression(number, expression.trim()));
+                continue;
+            }
+
+            final Set<LabelAtom> labels = Label.parse(atoms);
+            if (labels.isEmpty()) {
+                errors.add(Messages.no_implied_labels(number));
+                continue;
+            }
+
+            if (scope != null) {
+                try {
+                    Label.parseExpression(scope);
+                } catch (ANTLRException ex) {
+                    errors.add(Messages.invalid_implication_scope(number, scope));
+                    continue;
+                }
+            }
+
+            implications.add(new Implication(label, labels, scope));
+        }
+        return implications;
+    }
+
     /*package*/ void implications(@NonNull Collection<Implication> implications) throws IOException {
+        final Events.Reconfigure event = new Events.Reconfigure();
+        event.begin();
+        final long start = System.nanoTime();
+
         List<Implication> im;
         try {
             im = Collections.unmodifiableList(Implication.sort(implications));
         } catch (CycleDetectedException ex) {
             throw new IOException("Implication cycle detected", ex);
         }
+        final long sorted = System.nanoTime();
 
+        final boolean unchanged;
+        final long partitioned;
+        final int dropped;
+        synchronized (configLock) {
+            // Configuration as code applies implications again after the cache was restored on startup,
+            // possibly in a different yet equally valid order
+            unchanged = im.size() == this.implications.size()
+                    && new HashSet<>(im).equals(new HashSet<>(this.implications));
+        }
+        if (unchanged) {
+            partitioned = sorted;
+            dropped = 0;
+        } else {
+            final Partitions partitions = new Partitions(im);
+            if (PRECOMPILED) {
+                partitions.table();
+            }
+            partitioned = System.nanoTime();
+            dropped = replace(im, partitions);
+        }
+        final long saving = System.nanoTime();
+        save();
+        final long saved = System.nanoTime();
+
+        // Let listeners know about labels the new implications changed rather than waiting for nodes to be evaluated
+        if (!unchanged && !ImpliedLabelsListener.all().isEmpty()) {
+            ImpliedLabelsListener.submit(() -> {
+                final Jenkins jenkins = Jenkins.get();
+                evaluate(jenkins);
+                for (Node node : jenkins.getNodes()) {
+                    evaluate(node);
+                }
+            });
+        }
+
+        if (event.shouldCommit()) {
+            event.implications = im.size();
+            event.sortTime = sorted - start;
+            event.partitionTime = partitioned - sorted;
+            event.saveTime = saved - saving;
+            event.cacheEntriesDropped = dropped;
+            event.commit();
+        }
+    }
+
+    private int replace(@NonNull List<Implication> im, @NonNull Partitions partitions) {
+        final int dropped;
         synchronized (configLock) {
             this.implications = im;
+            this.partitions = partitions;
             CACHE_LOGGER.fine("Clearing cache when implications changed");
+            dropped = this.cache.size() + this.templates.size() + this.adHoc.size();
             this.cache.clear();
+            this.interned.clear();
+            this.templates.clear();
+            this.adHoc.clear();
+            this.cacheDirty = true;
         }
-        save();
+        return dropped;
     }
 
     public @NonNull List<Implication> implications() {
@@ -138,29 +416,552 @@ public class Config extends ManagementLink {
         }
     }
 
+    /*package*/ @NonNull Partitions partitions() {
+        synchronized (configLock) {
+            // Implications are loaded from disk without partitions
+            if (this.partitions == null || this.partitions.implications() != this.implications) {
+                this.partitions = new Partitions(this.implications);
+            }
+            return this.partitions;
+        }
+    }
+
     public @NonNull Collection<LabelAtom> evaluate(@NonNull Node node) {
-        final @NonNull Set<LabelAtom> initial = initialLabels(node);
+        return closure(node).labels();
+    }
+
+    private @NonNull Closure closure(@NonNull Node node) {
+        return closure(node, initialLabels(node));
+    }
+
+    private @NonNull Closure closure(@NonNull Node node, @NonNull Set<LabelAtom> initial) {
+        final Events.Evaluate event = new Events.Evaluate();
+        event.begin();
+
+        final List<String> key = names(initial);
+
+        Closure closure;
+        List<String> previousInitial;
+        Closure previous = null;
+        LabelAtomSet previousLabels = null;
+        synchronized (configLock) {
+            closure = cached(key);
+            previousInitial = lastInitial.put(node.getNodeName(), key);
+            if (closure == null && previousInitial != null) {
+                previous = cached(previousInitial);
+            }
+            if (closure != null) {
+                previousLabels = lastLabels.put(node.getNodeName(), closure.labels());
+            }
+        }
+
+        final boolean cacheHit = closure != null;
+        if (closure == null) {
+            final Partitions partitions = partitions();
+            final List<Implication> implications = partitions.select(initial);
+            final Map<LabelAtom, Integer> provenance = new HashMap<>();
+            Set<LabelAtom> labels = null;
+            if (previous != null && previous.implications() == implications) {
+                final Set<String> previousNames = new HashSet<>(previousInitial);
+                final Set<LabelAtom> added = new HashSet<>(initial);
+                added.removeIf(atom -> previousNames.contains(atom.getName()));
+                final Set<LabelAtom> removed = new HashSet<>();
+                for (String name : previousNames) {
+                    if (!key.contains(name)) {
+                        removed.add(LabelAtom.get(name));
+                    }
+                }
+
+                // Large changes are cheaper to evaluate from scratch
+                if (added.size() + removed.size() < initial.size()) {
+                    CACHE_LOGGER.fine("Updating " + previous.labels() + " by +" + added + " -" + removed);
+                    provenance.putAll(previous.provenance());
+                    labels = update(implications, initial, previous.labels(), added, removed, provenance);
+                }
+            }
+            if (labels == null) {
+                labels = infer(partitions, implications, initial, provenance);
+            }
+
+            closure = cache(key, implications, labels, provenance);
+            synchronized (configLock) {
+                previousLabels = lastLabels.put(node.getNodeName(), closure.labels());
+            }
+        }
+
+        commit(event, node.getNodeName(), initial, closure, cacheHit);
+        fireChanged(node, previousLabels, closure.labels());
+        return closure;
+    }
+
+    private static void fireChanged(
+            @NonNull Node node, @CheckForNull Set<LabelAtom> previous, @NonNull Set<LabelAtom> labels) {
+        // Closures are interned so unchanged labels are mostly the same instance
+        if (previous == null || previous == labels || previous.equals(labels)) return;
+
+        final Set<LabelAtom> added = new HashSet<>(labels);
+        added.removeAll(previous);
+        final Set<LabelAtom> removed = new HashSet<>(previous);
+        removed.removeAll(labels);
+        ImpliedLabelsListener.fireChanged(
+                node, Collections.unmodifiableSet(added), Collections.unmodifiableSet(removed));
+    }
+
+    /**
+     * Evaluate labels that does not belong to any node.
+     *
+     * @param initial Labels to begin with.
+     */
+    public @NonNull Collection<LabelAtom> evaluate(@NonNull Set<LabelAtom> initial) {
+        return closure(initial).labels();
+    }
+
+    private @NonNull Closure closure(@NonNull Set<LabelAtom> initial) {
+        final Events.Evaluate event = new Events.Evaluate();
+        event.begin();
+
+        final List<String> key = names(initial);
+        Closure closure;
+        synchronized (configLock) {
+            closure = cached(key);
+        }
+
+        final boolean cacheHit = closure != null;
+        if (closure == null) {
+            final Partitions partitions = partitions();
+            final List<Implication> implications = partitions.select(initial);
+            final Map<LabelAtom, Integer> provenance = new HashMap<>();
+            final Set<LabelAtom> labels = infer(partitions, implications, initial, provenance);
+            closure = cache(key, implications, labels, provenance);
+        }
+
+        commit(event, null, initial, closure, cacheHit);
+        return closure;
+    }
+
+    private static void commit(
+            @NonNull Events.Evaluate event,
+            @CheckForNull String node,
+            @NonNull Set<LabelAtom> initial,
+            @NonNull Closure closure,
+            boolean cacheHit) {
+        if (event.shouldCommit()) {
+            event.node = node;
+            event.initialLabels = initial.size();
+            event.closureSize = closure.labels().size();
+            event.cacheHit = cacheHit;
+            event.commit();
+        }
+    }
+
+    /**
+     * Evaluate labels of agents cloud template provisions.
+     *
+     * @param labelString Labels configured for the template.
+     */
+    public @NonNull Collection<LabelAtom> evaluateTemplate(@CheckForNull String labelString) {
+        final String key = Util.fixNull(labelString);
 
-        Collection<LabelAtom> labels;
+        LabelAtomSet labels;
         synchronized (configLock) {
-            labels = cache.get(initial);
+            final SoftReference<LabelAtomSet> ref = templates.get(key);
+            labels = ref == null ? null : ref.get();
         }
 
         if (labels == null) {
-            labels = new HashSet<>(initial);
-            for (Implication i : implications()) {
-                labels.addAll(i.infer(labels));
+            labels = closure(Label.parse(key)).labels();
+            synchronized (configLock) {
+                templates.put(key, new SoftReference<>(labels));
             }
+        }
+
+        return labels;
+    }
 
+    /**
+     * Explain where the labels of the node come from.
+     *
+     * @return Implication that inferred each label of the node, {@code null} for labels the node has on its own.
+     */
+    public @NonNull Map<LabelAtom, Implication> explain(@NonNull Node node) {
+        return closure(node).explain();
+    }
+
+    /**
+     * Explanation of labels of the node, served at {@code label-implications/explanation/NODE_NAME}.
+     */
+    public @CheckForNull Explanation getExplanation(@NonNull String name) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        final Node node = node(name);
+        return node == null ? null : new Explanation(node, explain(node));
+    }
+
+    @Restricted(NoExternalUse.class)
+    public static final class Explanation {
+        private final @NonNull Node node;
+        private final @NonNull Map<LabelAtom, Implication> labels;
+
+        private Explanation(@NonNull Node node, @NonNull Map<LabelAtom, Implication> labels) {
+            this.node = node;
+            this.labels = labels;
+        }
+
+        public @NonNull Node getNode() {
+            return node;
+        }
+
+        public @NonNull Map<LabelAtom, Implication> getLabels() {
+            return labels;
+        }
+    }
+
+    private @NonNull Closure cache(
+            @NonNull List<String> key,
+            @NonNull List<Implication> implications,
+            @NonNull Set<LabelAtom> labels,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        final Closure closure;
+        final boolean reorder;
+        synchronized (configLock) {
+            CACHE_LOGGER.fine("Caching " + key + " -> " + labels);
+            closure = new Closure(implications, intern(LabelAtomSet.of(labels)), provenance);
+            cache.put(key, new SoftReference<>(closure));
+            cacheDirty = true;
+            reorder = ++misses % REORDER_INTERVAL == 0;
+        }
+
+        // Enough expressions evaluated since last time to tell which implications match often
+        if (reorder) {
+            partitions().reorder();
+        }
+        return closure;
+    }
+
+    /**
+     * Write cached closures to disk unless they have not changed since last written.
+     */
+    /*package*/ void saveCache() throws IOException {
+        final CacheSnapshot snapshot;
+        synchronized (configLock) {
+            if (!cacheDirty) return;
+
+            final Map<Implication, Integer> indexes = new IdentityHashMap<>();
+            for (int k = 0; k < implications.size(); k++) {
+                indexes.put(implications.get(k), k);
+            }
+
+            final List<CacheSnapshot.Entry> entries = new ArrayList<>(cache.size());
+            for (Map.Entry<List<String>, SoftReference<Closure>> entry : cache.entrySet()) {
+                final Closure closure = entry.getValue().get();
+                if (closure == null) continue;
+
+                final Map<LabelAtom, Integer> inferred = inferredBy(closure, indexes);
+                if (inferred != null) {
+                    entries.add(new CacheSnapshot.Entry(entry.getKey(), inferred));
+                }
+            }
+
+            snapshot = new CacheSnapshot(CacheSnapshot.digest(implications), entries);
+            cacheDirty = false;
+        }
+
+        CACHE_LOGGER.fine("Writing " + snapshot.entries().size() + " cached closures");
+        try {
+            CacheSnapshot.file().write(snapshot);
+        } catch (IOException ex) {
             synchronized (configLock) {
-                CACHE_LOGGER.fine("Caching " + initial + " -> " + labels);
-                cache.put(initial, labels);
+                cacheDirty = true;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Read closures written by {@link #saveCache()}, provided they were computed with the current implications.
+     */
+    /*package*/ void loadCache() throws IOException {
+        final XmlFile file = CacheSnapshot.file();
+        if (!file.exists()) return;
+
+        final CacheSnapshot snapshot = (CacheSnapshot) file.read();
+        final List<Implication> implications = implications();
+        if (!CacheSnapshot.digest(implications).equals(snapshot.digest())) {
+            CACHE_LOGGER.fine("Ignoring cached closures computed with different implications");
+            return;
+        }
+
+        final Partitions partitions = partitions();
+        synchronized (configLock) {
+            // Implications replaced meanwhile
+            if (this.implications != implications) return;
+
+            for (CacheSnapshot.Entry entry : snapshot.entries()) {
+                final Set<LabelAtom> initial = entry.initial();
+                final List<Implication> selection = partitions.select(initial);
+                final Map<LabelAtom, Integer> provenance = provenance(entry.inferred(), implications, selection);
+                if (provenance == null) continue;
+
+                final Set<LabelAtom> labels = new HashSet<>(initial);
+                labels.addAll(provenance.keySet());
+                final List<String> key = names(initial);
+                if (cached(key) == null) {
+                    final Closure closure = new Closure(selection, intern(LabelAtomSet.of(labels)), provenance);
+                    cache.put(key, new SoftReference<>(closure));
+                }
+            }
+            CACHE_LOGGER.fine("Read " + snapshot.entries().size() + " cached closures");
+        }
+    }
+
+    /**
+     * Translate provenance of the closure to indexes of all implications.
+     *
+     * @return {@code null} if the closure was computed with implications replaced since.
+     */
+    private static @CheckForNull Map<LabelAtom, Integer> inferredBy(
+            @NonNull Closure closure, @NonNull Map<Implication, Integer> indexes) {
+        for (Implication implication : closure.implications()) {
+            if (!indexes.containsKey(implication)) return null;
+        }
+
+        final Map<LabelAtom, Integer> inferred = new HashMap<>();
+        for (Map.Entry<LabelAtom, Integer> label : closure.provenance().entrySet()) {
+            inferred.put(label.getKey(), indexes.get(closure.implications().get(label.getValue())));
+        }
+        return inferred;
+    }
+
+    /**
+     * Translate indexes of all implications to indexes of implications selected for the closure.
+     *
+     * @return {@code null} if some implication is not selected.
+     */
+    private static @CheckForNull Map<LabelAtom, Integer> provenance(
+            @NonNull Map<LabelAtom, Integer> inferred,
+            @NonNull List<Implication> implications,
+            @NonNull List<Implication> selection) {
+        final Map<LabelAtom, Integer> provenance = new HashMap<>();
+        for (Map.Entry<LabelAtom, Integer> label : inferred.entrySet()) {
+            final int index = label.getValue();
+            if (index < 0 || index >= implications.size()) return null;
+
+            final int k = selection.indexOf(implications.get(index));
+            if (k == -1) return null;
+
+            provenance.put(label.getKey(), k);
+        }
+        return provenance;
+    }
+
+    @GuardedBy("configLock")
+    private @NonNull LabelAtomSet intern(@NonNull LabelAtomSet set) {
+        final WeakReference<LabelAtomSet> ref = interned.get(set);
+        final LabelAtomSet existing = ref == null ? null : ref.get();
+        if (existing != null) return existing;
+
+        interned.put(set, new WeakReference<>(set));
+        return set;
+    }
+
+    @GuardedBy("configLock")
+    private @CheckForNull Closure cached(@NonNull List<String> key) {
+        final SoftReference<Closure> ref = cache.get(key);
+        if (ref == null) return null;
+
+        final Closure closure = ref.get();
+        if (closure == null) {
+            cache.remove(key);
+        }
+        return closure;
+    }
+
+    /**
+     * Cache key of initial labels.
+     */
+    private static @NonNull List<String> names(@NonNull Collection<LabelAtom> atoms) {
+        final String[] names = new String[atoms.size()];
+        int index = 0;
+        for (LabelAtom atom : atoms) {
+            names[index++] = atom.getName();
+        }
+        Arrays.sort(names);
+        return List.of(names);
+    }
+
+    /*package*/ int cacheSize() {
+        synchronized (configLock) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Forget labels of node that no longer exists.
+     */
+    /*package*/ void forget(@NonNull String node) {
+        synchronized (configLock) {
+            final List<String> key = lastInitial.remove(node);
+            if (key != null) {
+                cache.remove(key);
             }
+            lastLabels.remove(node);
         }
+    }
 
+    /**
+     * Drop closures collected under memory pressure and closures of nodes that no longer exist.
+     */
+    /*package*/ void prune() {
+        final Jenkins jenkins = Jenkins.get();
+        final Set<String> nodes = new HashSet<>();
+        nodes.add(jenkins.getNodeName());
+        for (Node node : jenkins.getNodes()) {
+            nodes.add(node.getNodeName());
+        }
+
+        synchronized (configLock) {
+            final int size = cache.size() + templates.size() + adHoc.size();
+            cache.values().removeIf(ref -> ref.get() == null);
+            templates.values().removeIf(ref -> ref.get() == null);
+            adHoc.values().removeIf(ref -> ref.get() == null);
+            for (Iterator<Map.Entry<String, List<String>>> it = lastInitial.entrySet().iterator(); it.hasNext(); ) {
+                final Map.Entry<String, List<String>> entry = it.next();
+                if (!nodes.contains(entry.getKey())) {
+                    cache.remove(entry.getValue());
+                    it.remove();
+                }
+            }
+            lastLabels.keySet().retainAll(nodes);
+            CACHE_LOGGER.fine(
+                    "Pruned " + (size - cache.size() - templates.size() - adHoc.size()) + " cached closures");
+        }
+    }
+
+    private static @NonNull Set<LabelAtom> infer(
+            @NonNull Partitions partitions,
+            @NonNull List<Implication> implications,
+            @NonNull Collection<LabelAtom> initial,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        return PRECOMPILED
+                ? partitions.table().infer(implications, initial, provenance)
+                : infer(implications, initial, provenance);
+    }
+
+    /*package*/ static @NonNull Set<LabelAtom> infer(
+            @NonNull List<Implication> implications, @NonNull Collection<LabelAtom> initial) {
+        return infer(implications, initial, null);
+    }
+
+    /**
+     * Infer labels from initial ones.
+     *
+     * @param provenance Populated with index of the first implication that inferred each label not present initially.
+     */
+    /*package*/ static @NonNull Set<LabelAtom> infer(
+            @NonNull List<Implication> implications,
+            @NonNull Collection<LabelAtom> initial,
+            @CheckForNull Map<LabelAtom, Integer> provenance) {
+        final Set<LabelAtom> labels = new HashSet<>(initial);
+        for (int k = 0; k < implications.size(); k++) {
+            final Implication implication = implications.get(k);
+            // Nothing to infer, no need to evaluate the expression
+            if (labels.containsAll(implication.atoms())) continue;
+
+            for (LabelAtom atom : implication.infer(labels)) {
+                if (labels.add(atom) && provenance != null) {
+                    provenance.put(atom, k);
+                }
+            }
+        }
         return labels;
     }
 
+    /**
+     * Update closure computed for a different set of initial labels.
+     *
+     * Only implications that consume or infer atoms whose presence might have changed are reevaluated, the rest
+     * keeps the outcome it had when {@code previous} was computed. Inferred atoms are retracted once no implication
+     * infers them and they are not among {@code initial} labels.
+     *
+     * @param implications Topologically sorted implications {@code previous} was computed with.
+     * @param initial New initial labels.
+     * @param previous Closure of the original initial labels.
+     * @param added Atoms present in {@code initial} but not in the original initial labels.
+     * @param removed Atoms present in the original initial labels but not in {@code initial}.
+     * @param provenance Provenance of {@code previous}, updated to match the new closure. See {@link #infer}.
+     */
+    /*package*/ static @NonNull Set<LabelAtom> update(
+            @NonNull List<Implication> implications,
+            @NonNull Set<LabelAtom> initial,
+            @NonNull Collection<LabelAtom> previous,
+            @NonNull Set<LabelAtom> added,
+            @NonNull Set<LabelAtom> removed,
+            @NonNull Map<LabelAtom, Integer> provenance) {
+        final Set<LabelAtom> labels = new HashSet<>(previous);
+        labels.removeAll(removed);
+        labels.addAll(added);
+        provenance.keySet().removeAll(added);
+
+        // Atoms that are not guaranteed to have the same presence as in previous closure
+        final Set<LabelAtom> dirty = new HashSet<>(added);
+        dirty.addAll(removed);
+
+        // As implications are sorted, all implications inferring an atom are visited before any implication consuming it
+        final Boolean[] fires = new Boolean[implications.size()];
+        for (int k = 0; k < fires.length; k++) {
+            final Implication i = implications.get(k);
+            final Label expression = i.expression();
+            if (expression == null) continue;
+
+            final boolean consumesDirty = !Collections.disjoint(expression.listAtoms(), dirty);
+            if (!consumesDirty && Collections.disjoint(i.atoms(), dirty)) continue;
+
+            final boolean before = expression.matches(previous);
+            final boolean now = consumesDirty ? expression.matches(labels) : before;
+            fires[k] = now;
+
+            if (now) {
+                for (LabelAtom atom : i.atoms()) {
+                    if (labels.add(atom)) {
+                        dirty.add(atom);
+                        provenance.put(atom, k);
+                    } else if (!initial.contains(atom)) {
+                        provenance.merge(atom, k, Math::min);
+                    }
+                }
+            } else if (before) {
+                for (LabelAtom atom : i.atoms()) {
+                    if (initial.contains(atom)) continue;
+
+                    final int inferredBy = inferredBefore(implications, k, atom, previous, fires);
+                    if (inferredBy != -1) {
+                        provenance.put(atom, inferredBy);
+                    } else if (labels.remove(atom)) {
+                        dirty.add(atom);
+                        provenance.remove(atom);
+                    }
+                }
+            }
+        }
+
+        return labels;
+    }
+
+    // Implications following the given index are visited later as the atom is dirty already
+    private static int inferredBefore(
+            List<Implication> implications, int end, LabelAtom atom, Collection<LabelAtom> previous, Boolean[] fires) {
+        for (int k = 0; k < end; k++) {
+            final Implication i = implications.get(k);
+            if (i.expression() == null || !i.atoms().contains(atom)) continue;
+
+            if (fires[k] == null) { // Not reevaluated so the outcome has not changed
+                fires[k] = i.expression().matches(previous);
+            }
+            if (fires[k]) return k;
+        }
+        return -1;
+    }
+
     /*
      * Get labels to begin with. Those are configured labels, self label and labels contributed by other LabelFinders.
      * see hudson.model.Node#getDynamicLabels()
@@ -178,22 +979,38 @@ public class Config extends ManagementLink {
         return result;
     }
 
+    // Built-in node is identified by its self label as its node name is empty
+    private static @CheckForNull Node node(@NonNull String name) {
+        final Jenkins jenkins = Jenkins.get();
+        return jenkins.getSelfLabel().getName().equals(name) ? jenkins : jenkins.getNode(name);
+    }
+
     /**
      * Get list of configured labels that are explicitly declared but can be inferred using current
      * implications
      */
     public @NonNull Collection<LabelAtom> detectRedundantLabels(@NonNull Node node) {
+        final Events.DetectRedundantLabels event = new Events.DetectRedundantLabels();
+        event.begin();
+
         final @NonNull Set<LabelAtom> initial = initialLabels(node);
         final @NonNull Set<LabelAtom> inferred = new HashSet<>();
         final @NonNull Set<LabelAtom> accumulated = new HashSet<>(initial);
 
-        for (Implication i : implications()) {
+        for (Implication i : partitions().select(initial)) {
             Collection<LabelAtom> ii = i.infer(accumulated);
             inferred.addAll(ii);
             accumulated.addAll(ii);
         }
 
         inferred.retainAll(initial);
+
+        if (event.shouldCommit()) {
+            event.node = node.getNodeName();
+            event.initialLabels = initial.size();
+            event.redundantLabels = inferred.size();
+            event.commit();
+        }
         return inferred;
     }
 
@@ -232,20 +1049,280 @@ public class Config extends ManagementLink {
         return FormValidation.ok();
     }
 
+    @Restricted(NoExternalUse.class)
+    public FormValidation doCheckScope(@QueryParameter String scope) {
+        return doCheckExpression(scope);
+    }
+
+    /**
+     * Validate implications edited on the configure page as a whole.
+     *
+     * Request body is JSON array with an object with {@code expression}, {@code atoms} and {@code scope} members per
+     * row. Reports rows that do not parse, duplicate rows, rows that never apply and cycles among rows.
+     */
+    @POST
+    public FormValidation doCheckImplications(StaplerRequest2 req) throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        final JSONArray rows;
+        try (BufferedReader reader = req.getReader()) {
+            rows = JSONArray.fromObject(IOUtils.toString(reader));
+        } catch (JSONException ex) {
+            return FormValidation.error(ex, Messages.malformed_implications());
+        }
+
+        return checkImplications(rows, knownLabels());
+    }
+
+    /**
+     * @param known Labels nodes have on their own.
+     */
+    /*package*/ @NonNull FormValidation checkImplications(@NonNull JSONArray rows, @NonNull Set<LabelAtom> known) {
+        final List<FormValidation> problems = new ArrayList<>();
+        final List<Implication> implications = new ArrayList<>();
+        final Map<Implication, Integer> numbers = new IdentityHashMap<>();
+        final Map<Implication, Integer> distinct = new HashMap<>();
+        final Set<LabelAtom> inferred = new HashSet<>();
+        for (int k = 0; k < rows.size(); k++) {
+            final int number = k + 1;
+            final JSONObject row = rows.optJSONObject(k);
+            if (row == null) continue;
+
+            final String expression = Util.fixEmptyAndTrim(row.optString("expression"));
+            final String atoms = Util.fixEmptyAndTrim(row.optString("atoms"));
+            final String scope = Util.fixEmptyAndTrim(row.optString("scope"));
+            if (expression == null && atoms == null && scope == null) continue; // Row just added
+
+            final Label label = expression == null ? null : parseExpression(expression);
+            if (label == null) {
+                problems.add(FormValidation.error(
+                        Messages.invalid_implication_row_expression(number, Util.fixNull(expression))));
+                continue;
+            }
+            if (scope != null && parseExpression(scope) == null) {
+                problems.add(FormValidation.error(Messages.invalid_implication_row_scope(number, scope)));
+                continue;
+            }
+            final Set<LabelAtom> labels = Label.parse(Util.fixNull(atoms));
+            if (labels.isEmpty()) {
+                problems.add(FormValidation.error(Messages.no_implied_row_labels(number)));
+                continue;
+            }
+
+            final Implication implication = new Implication(label, labels, scope);
+            final Integer duplicated = distinct.putIfAbsent(implication, number);
+            if (duplicated != null) {
+                problems.add(FormValidation.warning(Messages.duplicate_implication(number, duplicated)));
+                continue;
+            }
+            implications.add(implication);
+            numbers.put(implication, number);
+            inferred.addAll(labels);
+        }
+
+        // Labels no node or template has and no implication infers are never present
+        for (Implication implication : implications) {
+            final Label expression = implication.expression();
+            if (!reachable(expression, known, inferred)) {
+                problems.add(FormValidation.warning(
+                        Messages.unreachable_implication(numbers.get(implication), expression)));
+            }
+        }
+
+        try {
+            Implication.sort(implications);
+        } catch (CycleDetectedException ex) {
+            final List<String> cycle = new ArrayList<>();
+            for (Object implication : ex.cycle) {
+                cycle.add(String.valueOf(numbers.get((Implication) implication)));
+            }
+            problems.add(FormValidation.error(Messages.implication_cycle(String.join(" => ", cycle))));
+        }
+
+        return FormValidation.aggregate(problems);
+    }
+
+    /**
+     * Whether expression matches some combination of labels that can be present, all other labels being absent.
+     */
+    private static boolean reachable(
+            @NonNull Label expression, @NonNull Set<LabelAtom> known, @NonNull Set<LabelAtom> inferred) {
+        final List<LabelAtom> present = new ArrayList<>();
+        for (LabelAtom atom : expression.listAtoms()) {
+            if (known.contains(atom) || inferred.contains(atom)) {
+                present.add(atom);
+            }
+        }
+        if (present.size() > REACHABILITY_ATOMS_LIMIT) return true;
+
+        final Set<LabelAtom> labels = new HashSet<>();
+        for (int combination = 0; combination < 1 << present.size(); combination++) {
+            labels.clear();
+            for (int i = 0; i < present.size(); i++) {
+                if ((combination & 1 << i) != 0) {
+                    labels.add(present.get(i));
+                }
+            }
+            if (expression.matches(labels)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return {@code null} if the expression is not valid.
+     */
+    private @CheckForNull Label parseExpression(@NonNull String expression) {
+        synchronized (expressions) {
+            final SoftReference<Label> ref = expressions.get(expression);
+            final Label label = ref == null ? null : ref.get();
+            if (label != null) return label;
+        }
+
+        final Label label;
+        try {
+            label = Label.parseExpression(expression);
+        } catch (ANTLRException ex) {
+            return null;
+        }
+        synchronized (expressions) {
+            if (expressions.size() >= EXPRESSIONS_LIMIT) {
+                final Iterator<String> eldest = expressions.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            expressions.put(expression, new SoftReference<>(label));
+        }
+        return label;
+    }
+
+    /**
+     * Labels nodes and cloud templates have on their own.
+     *
+     * Taken from initial labels remembered when nodes were last evaluated, so label finders only run for nodes not
+     * evaluated yet. Cloud templates are known once a cloud plugin asked for their labels.
+     */
+    private @NonNull Set<LabelAtom> knownLabels() {
+        final Jenkins jenkins = Jenkins.get();
+        final List<Node> nodes = new ArrayList<>(jenkins.getNodes());
+        nodes.add(jenkins);
+
+        final Set<String> names = new HashSet<>();
+        final List<String> templateLabels;
+        final List<Node> unknown = new ArrayList<>();
+        synchronized (configLock) {
+            templateLabels = new ArrayList<>(templates.keySet());
+            for (Node node : nodes) {
+                final List<String> initial = lastInitial.get(node.getNodeName());
+                if (initial == null) {
+                    unknown.add(node);
+                } else {
+                    names.addAll(initial);
+                }
+            }
+        }
+
+        final Set<LabelAtom> known = new HashSet<>();
+        for (String name : names) {
+            known.add(LabelAtom.get(name));
+        }
+        for (String labelString : templateLabels) {
+            known.addAll(Label.parse(labelString));
+        }
+        for (Node node : unknown) {
+            known.addAll(initialLabels(node));
+        }
+        return known;
+    }
+
     @Restricted(NoExternalUse.class)
     public FormValidation doInferLabels(@QueryParameter String labelString) {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
         if (Util.fixEmpty(labelString) == null) return FormValidation.ok();
 
-        final @NonNull Set<LabelAtom> labels = Label.parse(labelString);
-        for (Implication i : implications()) {
-            labels.addAll(i.infer(labels));
+        final Collection<LabelAtom> labels = inferLabels(labelString, false);
+        if (labels == null || labels.isEmpty()) return FormValidation.ok(Messages.no_labels_inferred());
+
+        return FormValidation.ok(Messages.inferred_labels(Util.join(labels, " ")));
+    }
+
+    /**
+     * Infer labels for label strings or node names read from request body, one per line.
+     *
+     * Response contains line {@code input => inferred labels} per input.
+     *
+     * @param nodes Lines are node names rather than label strings.
+     */
+    @POST
+    public void doInferLabelsBatch(StaplerRequest2 req, StaplerResponse2 rsp, @QueryParameter boolean nodes)
+            throws IOException {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        rsp.setContentType("text/plain;charset=UTF-8");
+        try (BufferedReader reader = req.getReader();
+                PrintWriter writer = rsp.getWriter()) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) continue;
+
+                writer.println(inferLabelsLine(line, nodes));
+            }
         }
+    }
 
-        labels.removeAll(Label.parse(labelString));
+    /*package*/ @NonNull String inferLabelsLine(@NonNull String input, boolean node) {
+        final Collection<LabelAtom> labels = inferLabels(input, node);
+        if (labels == null) return "# " + Messages.no_such_node(input);
 
-        if (labels.isEmpty()) return FormValidation.ok(Messages.no_labels_inferred());
+        return input + " => " + Util.join(labels, " ");
+    }
 
-        return FormValidation.ok(Messages.inferred_labels(Util.join(labels, " ")));
+    /**
+     * Labels inferred for the label string or the node.
+     *
+     * @param input Label string or node name.
+     * @param node Treat {@code input} as node name.
+     * @return Sorted inferred labels, not including the initial ones. {@code null} if there is no such node.
+     */
+    /*package*/ @CheckForNull Collection<LabelAtom> inferLabels(@NonNull String input, boolean node) {
+        final Set<LabelAtom> initial;
+        final Collection<LabelAtom> closure;
+        if (node) {
+            final Node n = node(input);
+            if (n == null) return null;
+
+            initial = initialLabels(n);
+            closure = closure(n, initial).labels();
+        } else {
+            initial = Label.parse(input);
+            closure = adHoc(initial);
+        }
+
+        final Set<LabelAtom> inferred = new TreeSet<>(closure);
+        inferred.removeAll(initial);
+        return inferred;
+    }
+
+    private @NonNull LabelAtomSet adHoc(@NonNull Set<LabelAtom> initial) {
+        final List<String> key = names(initial);
+        synchronized (configLock) {
+            final SoftReference<LabelAtomSet> ref = adHoc.get(key);
+            final LabelAtomSet labels = ref == null ? null : ref.get();
+            if (labels != null) return labels;
+        }
+
+        final Partitions partitions = partitions();
+        final LabelAtomSet labels =
+                LabelAtomSet.of(infer(partitions, partitions.select(initial), initial, new HashMap<>()));
+        synchronized (configLock) {
+            if (adHoc.size() >= AD_HOC_LIMIT) {
+                final Iterator<List<String>> eldest = adHoc.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            adHoc.put(key, new SoftReference<>(labels));
+        }
+        return labels;
     }
 
     @Restricted(NoExternalUse.class)
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * JDK Flight Recorder events of the plugin.
+ *
+ * Events are disabled by default so they cost next to nothing unless enabled in the recording settings, e.g. by
+ * setting {@code enabled} to {@code true} for {@code org.jenkinsci.plugins.impliedlabels.Evaluate} in a custom
+ * {@code .jfc} file.
+ */
+/*package*/ final class Events {
+
+    private static final String CATEGORY = "Implied Labels";
+
+    private Events() {}
+
+    @Name("org.jenkinsci.plugins.impliedlabels.Evaluate")
+    @Label("Evaluate Labels")
+    @Description("Labels of a node or a label set inferred")
+    @Category({"Jenkins", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    /*package*/ static final class Evaluate extends Event {
+        @Label("Node")
+        @Description("Node name, empty for the built-in node, not set for labels that do not belong to a node")
+        String node;
+
+        @Label("Initial Labels")
+        int initialLabels;
+
+        @Label("Closure Size")
+        int closureSize;
+
+        @Label("Cache Hit")
+        boolean cacheHit;
+    }
+
+    @Name("org.jenkinsci.plugins.impliedlabels.Reconfigure")
+    @Label("Reconfigure Implications")
+    @Description("Implications replaced")
+    @Category({"Jenkins", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    /*package*/ static final class Reconfigure extends Event {
+        @Label("Implications")
+        int implications;
+
+        @Label("Sort Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long sortTime;
+
+        @Label("Partition Time")
+        @Description("Partitioning implications and precomputing closures of atoms")
+        @Timespan(Timespan.NANOSECONDS)
+        long partitionTime;
+
+        @Label("Save Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long saveTime;
+
+        @Label("Cache Entries Dropped")
+        int cacheEntriesDropped;
+    }
+
+    @Name("org.jenkinsci.plugins.impliedlabels.DetectRedundantLabels")
+    @Label("Detect Redundant Labels")
+    @Description("Configured labels of a node that can be inferred detected")
+    @Category({"Jenkins", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    /*package*/ static final class DetectRedundantLabels extends Event {
+        @Label("Node")
+        String node;
+
+        @Label("Initial Labels")
+        int initialLabels;
+
+        @Label("Redundant Labels")
+        int redundantLabels;
+    }
+}
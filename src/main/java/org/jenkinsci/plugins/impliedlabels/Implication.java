@@ -34,12 +34,15 @@ import hudson.util.CyclicGraphDetector.CycleDetectedException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 @Restricted(NoExternalUse.class)
 public class Implication {
@@ -49,8 +52,23 @@ public class Implication {
 
     private final @CheckForNull Label expression;
 
-    @DataBoundConstructor
+    /**
+     * Label expression initial labels of a node need to match for the implication to apply to it. Applies to all nodes
+     * when {@code null}.
+     */
+    private final @CheckForNull String scope;
+
+    /** Number of times the expression was evaluated and matched, approximate as updated without synchronization. */
+    private transient int evaluations;
+
+    private transient int matches;
+
     public Implication(@NonNull String expression, @NonNull String atoms) {
+        this(expression, atoms, null);
+    }
+
+    @DataBoundConstructor
+    public Implication(@NonNull String expression, @NonNull String atoms, @CheckForNull String scope) {
 
         this.atoms = Collections.unmodifiableSet(Label.parse(atoms));
         Label e;
@@ -60,6 +78,24 @@ public class Implication {
             e = null;
         }
         this.expression = e;
+        this.scope = normalizeScope(scope);
+    }
+
+    /*package*/ Implication(@NonNull Label expression, @NonNull Set<LabelAtom> atoms, @CheckForNull String scope) {
+        this.atoms = Collections.unmodifiableSet(atoms);
+        this.expression = expression;
+        this.scope = normalizeScope(scope);
+    }
+
+    private static @CheckForNull String normalizeScope(@CheckForNull String scope) {
+        scope = Util.fixEmptyAndTrim(scope);
+        if (scope == null) return null;
+
+        try {
+            return Label.parseExpression(scope).toString();
+        } catch (ANTLRException ex) {
+            return scope; // Never applies, see Partitions
+        }
     }
 
     public String expressionString() {
@@ -78,23 +114,45 @@ public class Implication {
         return atoms;
     }
 
+    public @CheckForNull String scope() {
+        return scope;
+    }
+
+    public String scopeString() {
+        return scope == null ? "" : scope;
+    }
+
     public int labelSize() {
         if (expression == null) return 0;
         return expression.getNodes().size() + expression.getClouds().size();
     }
 
     public @NonNull Collection<LabelAtom> infer(@NonNull Collection<LabelAtom> atoms) {
-        return expression != null && expression.matches(atoms) ? this.atoms : NO_ATOMS;
+        if (expression == null) return NO_ATOMS;
+
+        evaluations++;
+        if (!expression.matches(atoms)) return NO_ATOMS;
+
+        matches++;
+        return this.atoms;
+    }
+
+    /**
+     * Estimated probability the expression matches, 0.5 until evaluated.
+     */
+    /*package*/ double matchRate() {
+        return (matches + 1) / (evaluations + 2.0);
     }
 
     @Override
     public String toString() {
-        return (expression == null ? "false" : expression) + " => " + atomsString();
+        final String implication = (expression == null ? "false" : expression) + " => " + atomsString();
+        return scope == null ? implication : implication + " [" + scope + "]";
     }
 
     @Override
     public int hashCode() {
-        return 31 * atoms.hashCode() + expressionString().hashCode();
+        return 31 * (31 * atoms.hashCode() + expressionString().hashCode()) + Objects.hashCode(scope);
     }
 
     @Override
@@ -106,6 +164,7 @@ public class Implication {
         Implication other = (Implication) rhs;
 
         if (!Objects.equals(atoms, other.atoms)) return false;
+        if (!Objects.equals(scope, other.scope)) return false;
         return Objects.equals(expression, other.expression);
     }
 
@@ -120,6 +179,7 @@ public class Implication {
     public static final class ImplicationWrapper {
         private String expression;
         private String atoms;
+        private String scope;
 
         @DataBoundConstructor
         public ImplicationWrapper(String expression, String atoms) {
@@ -142,13 +202,29 @@ public class Implication {
         public void setAtoms(String atoms) {
             this.atoms = atoms;
         }
+
+        public String getScope() {
+            return scope;
+        }
+
+        @DataBoundSetter
+        public void setScope(String scope) {
+            this.scope = Util.fixEmptyAndTrim(scope);
+        }
     }
 
     private static final class ImplicationSorter extends CyclicGraphDetector<Implication> {
-        private final Collection<Implication> implications;
+        /** Implications inferring an atom, so edges are looked up rather than scanning all implications. */
+        private final Map<LabelAtom, List<Implication>> inferredBy = new HashMap<>();
 
         private ImplicationSorter(Collection<Implication> implications) {
-            this.implications = implications;
+            for (Implication i : implications) {
+                if (i.expression == null) continue;
+
+                for (LabelAtom atom : i.atoms) {
+                    inferredBy.computeIfAbsent(atom, a -> new ArrayList<>()).add(i);
+                }
+            }
         }
 
         @Override
@@ -156,13 +232,12 @@ public class Implication {
             List<Implication> edges = new ArrayList<>();
             if (current.expression == null) return edges;
 
-            for (Implication i : implications) {
-                if (i == current) continue;
-                if (i.expression == null) continue;
-
-                if (Collections.disjoint(current.expression.listAtoms(), i.atoms)) continue;
+            for (LabelAtom atom : current.expression.listAtoms()) {
+                for (Implication i : inferredBy.getOrDefault(atom, Collections.emptyList())) {
+                    if (i == current) continue;
 
-                edges.add(i);
+                    edges.add(i);
+                }
             }
 
             return edges;
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import hudson.util.AtmostOneThreadExecutor;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives notifications when labels of a node change, so consumers do not need to poll
+ * {@link Node#getAssignedLabels()}.
+ *
+ * Labels are compared with the ones the node had when last evaluated, the first evaluation of a node is not reported.
+ * Nodes are evaluated again in the background when implications change, provided there are listeners.
+ */
+public abstract class ImpliedLabelsListener implements ExtensionPoint {
+
+    private static final Logger LOGGER = Logger.getLogger(ImpliedLabelsListener.class.getName());
+
+    // Labels are evaluated holding Queue and label locks, listeners must not run there. Single thread keeps events
+    // ordered, it terminates once there is nothing to deliver so it does not outlive Jenkins.
+    private static final ExecutorService EXECUTOR = new AtmostOneThreadExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), ImpliedLabelsListener.class.getSimpleName()));
+
+    /**
+     * Labels of the node changed.
+     *
+     * Called asynchronously on a dedicated thread, in the order labels were evaluated.
+     *
+     * @param node Node evaluated.
+     * @param added Labels node has now and did not have before.
+     * @param removed Labels node had before and does not have now.
+     */
+    public abstract void onChanged(@NonNull Node node, @NonNull Set<LabelAtom> added, @NonNull Set<LabelAtom> removed);
+
+    public static @NonNull ExtensionList<ImpliedLabelsListener> all() {
+        return ExtensionList.lookup(ImpliedLabelsListener.class);
+    }
+
+    /*package*/ static void fireChanged(
+            @NonNull Node node, @NonNull Set<LabelAtom> added, @NonNull Set<LabelAtom> removed) {
+        if (all().isEmpty()) return;
+
+        EXECUTOR.execute(() -> {
+            for (ImpliedLabelsListener listener : all()) {
+                try {
+                    listener.onChanged(node, added, removed);
+                } catch (RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Listener " + listener + " failed for " + node.getNodeName(), ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run task on the thread listeners are notified on, so changes it reports are delivered after preceding events.
+     */
+    /*package*/ static void submit(@NonNull Runnable task) {
+        EXECUTOR.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOGGER.log(Level.WARNING, "Failed to evaluate labels for listeners", ex);
+            }
+        });
+    }
+}
@@ -63,7 +63,7 @@ public class ImpliedLabelsPlugin extends GlobalConfiguration {
         try {
             this.getConfig()
                     .implications(implications.stream()
-                            .map(p -> new Implication(p.getExpression(), p.getAtoms()))
+                            .map(p -> new Implication(p.getExpression(), p.getAtoms(), p.getScope()))
                             .collect(Collectors.toList()));
         } catch (IOException e) {
 
@@ -72,7 +72,11 @@ public class ImpliedLabelsPlugin extends GlobalConfiguration {
 
     public List<ImplicationWrapper> getImplications() {
         return this.getConfig().implications().stream()
-                .map(i -> new ImplicationWrapper(i.expressionString(), i.atomsString()))
+                .map(i -> {
+                    ImplicationWrapper wrapper = new ImplicationWrapper(i.expressionString(), i.atomsString());
+                    wrapper.setScope(i.scope());
+                    return wrapper;
+                })
                 .collect(Collectors.toList());
     }
 
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Print labels inferred for label strings or nodes.
+ *
+ * Prints line {@code input => inferred labels} per input.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class InferLabelsCommand extends CLICommand {
+
+    @Option(name = "-node", usage = "Treat inputs as node names rather than label strings")
+    public boolean node;
+
+    @Argument(metaVar = "INPUT", usage = "Label strings or node names. Read from stdin, one per line, if omitted")
+    public List<String> inputs = new ArrayList<>();
+
+    @Override
+    public String getShortDescription() {
+        return Messages.infer_labels_command_description();
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        if (inputs.isEmpty()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stdin, getClientCharset()))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty()) inputs.add(line);
+                }
+            }
+        }
+
+        final Config config = ImpliedLabelsPlugin.get().getConfig();
+        for (String input : inputs) {
+            stdout.println(config.inferLabelsLine(input, node));
+        }
+        return 0;
+    }
+}
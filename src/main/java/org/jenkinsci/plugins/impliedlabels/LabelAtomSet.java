@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.labels.LabelAtom;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Immutable set of label atoms backed by an array sorted by name.
+ *
+ * Closures are retained for every distinct set of initial labels so they are kept as compact as possible.
+ */
+/*package*/ final class LabelAtomSet extends AbstractSet<LabelAtom> {
+
+    private static final @NonNull Comparator<LabelAtom> BY_NAME = Comparator.comparing(LabelAtom::getName);
+    private static final @NonNull LabelAtom[] NO_ATOMS = new LabelAtom[0];
+
+    private final @NonNull LabelAtom[] atoms;
+    private final int hash;
+
+    private LabelAtomSet(@NonNull LabelAtom[] atoms) {
+        this.atoms = atoms;
+        int h = 0;
+        for (LabelAtom atom : atoms) {
+            h += atom.hashCode();
+        }
+        this.hash = h;
+    }
+
+    /*package*/ static @NonNull LabelAtomSet of(@NonNull Collection<LabelAtom> atoms) {
+        if (atoms instanceof LabelAtomSet set) return set;
+
+        final LabelAtom[] sorted = atoms.toArray(NO_ATOMS);
+        Arrays.sort(sorted, BY_NAME);
+
+        // Collections other than sets can contain duplicates
+        int size = 0;
+        for (LabelAtom atom : sorted) {
+            if (size == 0 || !sorted[size - 1].equals(atom)) {
+                sorted[size++] = atom;
+            }
+        }
+        return new LabelAtomSet(size == sorted.length ? sorted : Arrays.copyOf(sorted, size));
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof LabelAtom atom)) return false;
+
+        final int index = Arrays.binarySearch(atoms, atom, BY_NAME);
+        return index >= 0 && atoms[index].equals(atom);
+    }
+
+    @Override
+    public @NonNull Iterator<LabelAtom> iterator() {
+        return Arrays.asList(atoms).iterator();
+    }
+
+    @Override
+    public int size() {
+        return atoms.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (o instanceof LabelAtomSet other) {
+            return hash == other.hash && Arrays.equals(atoms, other.atoms);
+        }
+        return super.equals(o);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import antlr.ANTLRException;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+
+/**
+ * Implications partitioned by their scope, in the order they are evaluated.
+ *
+ * Implication with a scope applies only to nodes whose initial labels match the scope, implications without a scope
+ * apply to all nodes. Scopes are selected before any implication is evaluated so nodes do not pay for implications
+ * that can never apply to them.
+ *
+ * Implications are grouped into dependency levels, implications on the same level do not depend on each other so
+ * they can be evaluated in any order. Within a level, implications that match often and are cheap to evaluate go
+ * first, so implications inferring the same labels later can be skipped. See {@link #reorder()}.
+ */
+/*package*/ final class Partitions {
+
+    /** Topologically sorted implications. */
+    private final @NonNull List<Implication> implications;
+
+    /** Indexes of implications without scope. */
+    private final @NonNull BitSet global = new BitSet();
+
+    /** Indexes of implications per scope. Scopes that are not valid label expressions never apply so they are omitted. */
+    private final @NonNull Map<Label, BitSet> scopes = new LinkedHashMap<>();
+
+    /** Dependency level of implication at given index. */
+    private final @NonNull int[] levels;
+
+    /** Number of atoms in expression of implication at given index. */
+    private final @NonNull int[] costs;
+
+    private volatile @NonNull Order order;
+
+    /** Built on first use, see {@link #table()}. */
+    private volatile @CheckForNull ClosureTable table;
+
+    /*package*/ Partitions(@NonNull List<Implication> implications) {
+        this.implications = implications;
+        this.levels = new int[implications.size()];
+        this.costs = new int[implications.size()];
+
+        final Map<LabelAtom, List<Integer>> inferredBy = new HashMap<>();
+        for (int k = 0; k < implications.size(); k++) {
+            final Implication implication = implications.get(k);
+
+            final String scope = implication.scope();
+            if (scope == null) {
+                global.set(k);
+            } else {
+                try {
+                    scopes.computeIfAbsent(Label.parseExpression(scope), l -> new BitSet())
+                            .set(k);
+                } catch (ANTLRException ex) {
+                    // Never applies
+                }
+            }
+
+            // Implications inferring atoms of the expression precede it
+            final Label expression = implication.expression();
+            if (expression != null) {
+                final Collection<LabelAtom> atoms = expression.listAtoms();
+                costs[k] = atoms.size();
+                for (LabelAtom atom : atoms) {
+                    for (int dependency : inferredBy.getOrDefault(atom, Collections.emptyList())) {
+                        levels[k] = Math.max(levels[k], levels[dependency] + 1);
+                    }
+                }
+            }
+            for (LabelAtom atom : implication.atoms()) {
+                inferredBy.computeIfAbsent(atom, a -> new ArrayList<>()).add(k);
+            }
+        }
+
+        this.order = new Order(IntStream.range(0, levels.length)
+                .boxed()
+                .sorted(Comparator.comparingInt(k -> levels[k]))
+                .mapToInt(Integer::intValue)
+                .toArray());
+    }
+
+    /*package*/ @NonNull List<Implication> implications() {
+        return implications;
+    }
+
+    /**
+     * Implications applicable to node with given initial labels.
+     *
+     * @return Implications in evaluation order, the same instance for the same applicable scopes until reordered.
+     */
+    /*package*/ @NonNull List<Implication> select(@NonNull Collection<LabelAtom> initial) {
+        final BitSet selected = (BitSet) global.clone();
+        for (Map.Entry<Label, BitSet> scope : scopes.entrySet()) {
+            if (scope.getKey().matches(initial)) {
+                selected.or(scope.getValue());
+            }
+        }
+
+        final Order order = this.order;
+        return order.selections.computeIfAbsent(selected, s -> {
+            final List<Implication> selection = new ArrayList<>(s.cardinality());
+            for (int k : order.indexes) {
+                if (s.get(k)) selection.add(implications.get(k));
+            }
+            return Collections.unmodifiableList(selection);
+        });
+    }
+
+    /**
+     * Order implications within dependency levels by their measured match rate and cost of their expressions.
+     *
+     * Inferred labels are the same in any order, only the number of expressions evaluated changes.
+     */
+    /*package*/ void reorder() {
+        final double[] rates = new double[levels.length];
+        for (int k = 0; k < rates.length; k++) {
+            rates[k] = implications.get(k).matchRate();
+        }
+
+        final int[] indexes = IntStream.range(0, levels.length)
+                .boxed()
+                .sorted(Comparator.<Integer>comparingInt(k -> levels[k])
+                        .thenComparingDouble(k -> -rates[k])
+                        .thenComparingInt(k -> costs[k]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        // Keep selections, and thus incremental updates of closures computed from them, when nothing changed
+        if (!Arrays.equals(indexes, order.indexes)) {
+            order = new Order(indexes);
+
+            final ClosureTable table = this.table;
+            if (table != null) {
+                table.clearPlans();
+            }
+        }
+    }
+
+    /**
+     * Closures of atoms precomputed for the implications.
+     */
+    /*package*/ @NonNull ClosureTable table() {
+        ClosureTable table = this.table;
+        if (table == null) {
+            // Built again in the unlikely case of concurrent first use, the tables are the same
+            table = new ClosureTable(implications);
+            this.table = table;
+        }
+        return table;
+    }
+
+    /*package*/ boolean precompiled() {
+        return table != null;
+    }
+
+    private static final class Order {
+        /** Indexes of implications in evaluation order. */
+        private final @NonNull int[] indexes;
+
+        /** Implications applicable for every combination of scopes seen. */
+        private final @NonNull ConcurrentMap<BitSet, List<Implication>> selections = new ConcurrentHashMap<>();
+
+        private Order(@NonNull int[] indexes) {
+            this.indexes = indexes;
+        }
+    }
+}
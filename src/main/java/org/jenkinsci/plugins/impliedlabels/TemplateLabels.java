@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Label;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.Cloud;
+import java.util.Collection;
+
+/**
+ * Implied labels of agents that are yet to be provisioned.
+ *
+ * {@link Implier} contributes labels to existing nodes only. Cloud implementations can use this to let templates
+ * satisfy labels implied from their configured labels, typically from {@link Cloud#canProvision(Cloud.CloudState)}:
+ *
+ * <pre>
+ * return TemplateLabels.matches(state.getLabel(), template.getLabelString());
+ * </pre>
+ *
+ * Closures are cached per template label string until implications change, so this is cheap to call on every
+ * provisioning attempt.
+ */
+public final class TemplateLabels {
+
+    private TemplateLabels() {}
+
+    /**
+     * Labels of agents provisioned from a template, including the implied ones.
+     *
+     * @param labelString Labels configured for the template.
+     * @return Unmodifiable collection of labels.
+     */
+    public static @NonNull Collection<LabelAtom> of(@CheckForNull String labelString) {
+        return ImpliedLabelsPlugin.get().getConfig().evaluateTemplate(labelString);
+    }
+
+    /**
+     * Whether agents provisioned from a template satisfy the label.
+     *
+     * @param label Label requested, {@code null} if any agent will do.
+     * @param labelString Labels configured for the template.
+     */
+    public static boolean matches(@CheckForNull Label label, @CheckForNull String labelString) {
+        return label == null || label.matches(of(labelString));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Validate all implications on the configure page as rows change.
+ */
+(function () {
+  const DELAY = 300;
+
+  function rows(form) {
+    return Array.from(form.querySelectorAll(".repeated-chunk")).map(function (chunk) {
+      function value(field) {
+        const input = chunk.querySelector("input[name='_." + field + "']");
+        return input ? input.value : "";
+      }
+      return { expression: value("expression"), atoms: value("atoms"), scope: value("scope") };
+    });
+  }
+
+  Behaviour.specify("#implications-validation", "implied-labels-validation", 0, function (result) {
+    const form = result.closest("form");
+    let timer;
+    let sequence = 0;
+
+    function validate() {
+      const current = ++sequence;
+      fetch(result.dataset.url, {
+        method: "post",
+        headers: crumb.wrap({ "Content-Type": "application/json" }),
+        body: JSON.stringify(rows(form)),
+      })
+        .then(function (rsp) {
+          return rsp.ok ? rsp.text() : "";
+        })
+        .then(function (html) {
+          // Ignore responses overtaken by later edits
+          if (current === sequence) {
+            result.innerHTML = html;
+          }
+        });
+    }
+
+    function schedule() {
+      clearTimeout(timer);
+      timer = setTimeout(validate, DELAY);
+    }
+
+    // Rows are added and removed by buttons, edited by typing
+    form.addEventListener("input", schedule);
+    form.addEventListener("click", schedule);
+    validate();
+  });
+})();
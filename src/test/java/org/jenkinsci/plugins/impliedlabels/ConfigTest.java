@@ -27,7 +27,12 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.CoreMatchers.startsWith;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -35,6 +40,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.ExtensionList;
 import hudson.model.AutoCompletionCandidates;
 import hudson.model.LabelFinder;
 import hudson.model.ManagementLink;
@@ -42,7 +48,12 @@ import hudson.model.Node;
 import hudson.model.labels.LabelAtom;
 import hudson.slaves.DumbSlave;
 import hudson.util.FormValidation;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -52,10 +63,21 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeMatcher;
 import org.htmlunit.FailingHttpStatusCodeException;
+import org.htmlunit.HttpMethod;
+import org.htmlunit.WebRequest;
+import org.htmlunit.WebResponse;
+import org.htmlunit.html.HtmlPage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -115,6 +137,310 @@ class ConfigTest {
         assertThat(j.jenkins.getLabelAtoms(), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", controllerLabel)));
     }
 
+    @Test
+    void evaluateIncrementally() throws Exception {
+        DumbSlave node = j.createSlave("node", "rhel65", NO_ENV);
+        assertThat(config.evaluate(node), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", "node")));
+
+        node.setLabelString("rhel65 fedora17");
+        assertThat(
+                config.evaluate(node),
+                sameMembers(labels("rhel65", "rhel6", "rhel", "fedora17", "fedora", "linux", "node")));
+
+        node.setLabelString("fedora17 rhel65 linux");
+        assertThat(
+                config.evaluate(node),
+                sameMembers(labels("rhel65", "rhel6", "rhel", "fedora17", "fedora", "linux", "node")));
+
+        node.setLabelString("linux fedora17");
+        assertThat(config.evaluate(node), sameMembers(labels("fedora17", "fedora", "linux", "node")));
+
+        node.setLabelString("linux");
+        assertThat(config.evaluate(node), sameMembers(labels("linux", "node")));
+    }
+
+    @Test
+    void closuresAreImmutableAndShared() throws Exception {
+        DumbSlave node = j.createSlave("node", "rhel65", NO_ENV);
+        Collection<LabelAtom> closure = config.evaluate(node);
+        assertThrows(UnsupportedOperationException.class, () -> closure.add(label("fedora")));
+        assertThrows(UnsupportedOperationException.class, () -> closure.remove(label("linux")));
+
+        node.setLabelString("rhel65 linux");
+        assertThat(config.evaluate(node), sameInstance(closure));
+    }
+
+    @Test
+    void updateMatchesFullEvaluation() throws Exception {
+        List<Implication> sorted = Implication.sort(Arrays.asList(
+                new Implication("rhel64 || rhel65", "rhel6"),
+                new Implication("rhel5 || rhel6", "rhel"),
+                new Implication("fedora17", "fedora"),
+                new Implication("rhel || fedora", "linux"),
+                new Implication("linux && !fedora", "enterprise"),
+                new Implication("enterprise || solaris", "supported")));
+
+        List<LabelAtom> universe = new ArrayList<>(labels("rhel64", "rhel65", "rhel5", "fedora17", "linux", "solaris"));
+        List<Set<LabelAtom>> sets = new ArrayList<>();
+        for (int mask = 0; mask < 1 << universe.size(); mask++) {
+            Set<LabelAtom> set = new HashSet<>();
+            for (int b = 0; b < universe.size(); b++) {
+                if ((mask & 1 << b) != 0) set.add(universe.get(b));
+            }
+            sets.add(set);
+        }
+
+        for (Set<LabelAtom> before : sets) {
+            Map<LabelAtom, Integer> previousProvenance = new HashMap<>();
+            Set<LabelAtom> previous = Config.infer(sorted, before, previousProvenance);
+            for (Set<LabelAtom> after : sets) {
+                Set<LabelAtom> added = new HashSet<>(after);
+                added.removeAll(before);
+                Set<LabelAtom> removed = new HashSet<>(before);
+                removed.removeAll(after);
+
+                Map<LabelAtom, Integer> expectedProvenance = new HashMap<>();
+                Set<LabelAtom> expected = Config.infer(sorted, after, expectedProvenance);
+                Map<LabelAtom, Integer> provenance = new HashMap<>(previousProvenance);
+                assertThat(
+                        before + " -> " + after,
+                        Config.update(sorted, after, previous, added, removed, provenance),
+                        sameMembers(expected));
+                assertThat(before + " -> " + after, provenance, equalTo(expectedProvenance));
+            }
+        }
+    }
+
+    @Test
+    void precompiledMatchesEvaluation() throws Exception {
+        List<Implication> sorted = Implication.sort(Arrays.asList(
+                new Implication("a || b", "c"),
+                new Implication("c", "d e"),
+                new Implication("(d || x)", "f"),
+                new Implication("d && b", "g"),
+                new Implication("g || y", "h"),
+                new Implication("!h", "i"),
+                new Implication("i || a", "j"),
+                new Implication("e", "k", "a")));
+        Partitions partitions = new Partitions(sorted);
+        ClosureTable table = partitions.table();
+
+        List<LabelAtom> universe = new ArrayList<>(labels("a", "b", "x", "y", "h", "z"));
+        for (int mask = 0; mask < 1 << universe.size(); mask++) {
+            Set<LabelAtom> initial = new HashSet<>();
+            for (int b = 0; b < universe.size(); b++) {
+                if ((mask & 1 << b) != 0) initial.add(universe.get(b));
+            }
+
+            List<Implication> selected = partitions.select(initial);
+            Map<LabelAtom, Integer> provenance = new HashMap<>();
+            Set<LabelAtom> labels = table.infer(selected, initial, provenance);
+            assertThat(initial.toString(), labels, sameMembers(Config.infer(selected, initial)));
+
+            Set<LabelAtom> inferred = new HashSet<>(labels);
+            inferred.removeAll(initial);
+            assertThat(initial.toString(), provenance.keySet(), equalTo(inferred));
+            for (Map.Entry<LabelAtom, Integer> label : provenance.entrySet()) {
+                Implication implication = selected.get(label.getValue());
+                assertThat(implication.atoms(), hasItem(label.getKey()));
+                assertThat(implication.expression().matches(labels), is(true));
+            }
+        }
+
+        Config.PRECOMPILED = true;
+        try {
+            // Implications other than the ones applied by setUp, the same ones keep the partitions
+            config.implications(implications.subList(0, 4));
+            assertThat(config.partitions().precompiled(), is(true));
+            DumbSlave node = j.createSlave("node", "rhel65", NO_ENV);
+            assertThat(config.evaluate(node), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", "node")));
+            assertThat(config.explain(node).get(label("linux")), equalTo(implications.get(3)));
+        } finally {
+            Config.PRECOMPILED = false;
+        }
+    }
+
+    @Test
+    void explain() throws Exception {
+        DumbSlave node = j.createSlave("node", "rhel65 linux", NO_ENV);
+
+        Map<LabelAtom, Implication> explanation = config.explain(node);
+        assertThat(explanation.keySet(), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", "node")));
+        assertNull(explanation.get(label("rhel65")));
+        assertNull(explanation.get(label("linux")));
+        assertNull(explanation.get(label("node")));
+        assertThat(explanation.get(label("rhel6")), equalTo(implications.get(0)));
+        assertThat(explanation.get(label("rhel")), equalTo(implications.get(1)));
+
+        node.setLabelString("rhel65");
+        assertThat(config.explain(node).get(label("linux")), equalTo(implications.get(3)));
+
+        // Linked for nodes without redundant labels too
+        assertThat(config.detectRedundantLabels(node), empty());
+        try (WebClient wc = j.createWebClient()) {
+            HtmlPage index = wc.goTo("label-implications");
+            HtmlPage page = index.getAnchorByHref("explanation/node").click();
+            assertThat(page.asNormalizedText(), containsString("rhel||fedora => linux"));
+        }
+    }
+
+    @Test
+    void persistCache() throws Exception {
+        DumbSlave node = j.createSlave("node", "rhel65", NO_ENV);
+        Set<LabelAtom> expected = labels("rhel65", "rhel6", "rhel", "linux", "node");
+        assertThat(config.evaluate(node), sameMembers(expected));
+        config.saveCache();
+
+        // Implications read from disk have not been evaluated yet
+        Config restarted = new Config();
+        restarted.loadCache();
+        assertThat(restarted.evaluate(node), sameMembers(expected));
+        assertThat(restarted.explain(node).get(label("rhel")), equalTo(implications.get(1)));
+        for (Implication i : restarted.implications()) {
+            assertThat(i.matchRate(), equalTo(0.5));
+        }
+
+        // Configuration as code applies the same implications again after the cache was restored
+        restarted = new Config();
+        restarted.loadCache();
+        restarted.implications(new ArrayList<>(restarted.implications()));
+        assertThat(restarted.evaluate(node), sameMembers(expected));
+        for (Implication i : restarted.implications()) {
+            assertThat(i.matchRate(), equalTo(0.5));
+        }
+
+        // Closures computed with different implications are ignored
+        config.implications(implications.subList(0, 2));
+        restarted = new Config();
+        restarted.loadCache();
+        assertThat(restarted.evaluate(node), sameMembers(labels("rhel65", "rhel6", "rhel", "node")));
+        assertThat(restarted.implications().stream().anyMatch(i -> i.matchRate() != 0.5), is(true));
+    }
+
+    @Test
+    void notifyListeners() throws Exception {
+        DumbSlave node = j.createSlave("node", "rhel64", NO_ENV);
+        config.evaluate(node);
+
+        // Registered only here, listeners make implication changes evaluate all nodes
+        RecordingListener listener = new RecordingListener();
+        ExtensionList<ImpliedLabelsListener> listeners = ImpliedLabelsListener.all();
+        listeners.add(listener);
+        try {
+            // Unchanged labels are not reported, events are delivered in order so it would come first
+            config.evaluate(node);
+
+            node.setLabelString("fedora17");
+            config.evaluate(node);
+            assertThat(listener.await(1), contains("node +fedora fedora17 -rhel rhel6 rhel64"));
+            listener.clear();
+
+            // Nodes are evaluated again when implications change
+            config.implications(implications.subList(0, 3));
+            assertThat(listener.await(1), contains("node + -linux"));
+        } finally {
+            listeners.remove(listener);
+        }
+    }
+
+    public static class RecordingListener extends ImpliedLabelsListener {
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public synchronized void onChanged(
+                @NonNull Node node, @NonNull Set<LabelAtom> added, @NonNull Set<LabelAtom> removed) {
+            events.add(node.getNodeName() + " +" + names(added) + " -" + names(removed));
+            notifyAll();
+        }
+
+        private static String names(Set<LabelAtom> labels) {
+            return labels.stream().map(LabelAtom::getName).sorted().collect(Collectors.joining(" "));
+        }
+
+        /**
+         * Wait for listener to be notified {@code count} times, events are delivered asynchronously.
+         */
+        public synchronized List<String> await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (events.size() < count) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) break;
+                wait(remaining);
+            }
+            return new ArrayList<>(events);
+        }
+
+        public synchronized void clear() {
+            events.clear();
+        }
+    }
+
+    @Test
+    void forgetRemovedNodes() throws Exception {
+        DumbSlave kept = j.createSlave("kept", "rhel65", NO_ENV);
+        DumbSlave removed = j.createSlave("removed", "rhel65", NO_ENV);
+        config.evaluate(kept);
+        config.evaluate(removed);
+        int size = config.cacheSize();
+
+        j.jenkins.removeNode(removed);
+        assertThat(config.cacheSize(), equalTo(size - 1));
+
+        config.prune();
+        assertThat(config.cacheSize(), equalTo(size - 1));
+        assertThat(config.evaluate(kept), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", "kept")));
+        assertThat(config.cacheSize(), equalTo(size - 1));
+    }
+
+    @Test
+    void evaluateScoped() throws Exception {
+        List<Implication> scoped = new ArrayList<>(implications);
+        scoped.add(new Implication("linux", "gcc", "rhel65 || fedora17"));
+        scoped.add(new Implication("gcc", "toolchain", "rhel65"));
+        scoped.add(new Implication("linux", "never", "||"));
+        config.implications(scoped);
+
+        DumbSlave r = j.createSlave("r", "rhel65", NO_ENV);
+        DumbSlave f = j.createSlave("f", "fedora17", NO_ENV);
+        DumbSlave r5 = j.createSlave("r5", "rhel5", NO_ENV);
+
+        assertThat(
+                config.evaluate(r), sameMembers(labels("rhel65", "rhel6", "rhel", "linux", "gcc", "toolchain", "r")));
+        assertThat(config.evaluate(f), sameMembers(labels("fedora17", "fedora", "linux", "gcc", "f")));
+        assertThat(config.evaluate(r5), sameMembers(labels("rhel5", "rhel", "linux", "r5")));
+
+        // Scope is matched against initial labels, not inferred ones
+        r5.setLabelString("rhel5 gcc");
+        assertThat(config.evaluate(r5), sameMembers(labels("rhel5", "rhel", "linux", "gcc", "r5")));
+        r.setLabelString("rhel64");
+        assertThat(config.evaluate(r), sameMembers(labels("rhel64", "rhel6", "rhel", "linux", "r")));
+    }
+
+    @Test
+    void reorderBySelectivity() {
+        List<Implication> before = config.partitions().select(labels("fedora17"));
+
+        for (int i = 0; i < 10; i++) {
+            config.evaluate(labels("fedora17", "f" + i));
+        }
+        config.partitions().reorder();
+
+        // Implications matching often go first, dependencies are still evaluated first
+        List<Implication> after = config.partitions().select(labels("fedora17"));
+        assertThat(after, not(sameInstance(before)));
+        assertThat(after.get(0), equalTo(implications.get(2)));
+        assertThat(after.indexOf(implications.get(1)), greaterThan(after.indexOf(implications.get(0))));
+        assertThat(after.indexOf(implications.get(3)), greaterThan(after.indexOf(implications.get(1))));
+        assertThat(after.indexOf(implications.get(3)), greaterThan(after.indexOf(implications.get(2))));
+
+        assertThat(config.evaluate(labels("fedora17", "x")), sameMembers(labels("fedora17", "fedora", "linux", "x")));
+        assertThat(config.evaluate(labels("rhel64", "x")), sameMembers(labels("rhel64", "rhel6", "rhel", "linux", "x")));
+
+        // Nothing to reorder
+        config.partitions().reorder();
+        assertThat(config.partitions().select(labels("fedora17")), sameInstance(after));
+    }
+
     @Test
     void considerLabelsContributedByOtherLabelFinders() throws IOException {
         j.jenkins.setLabelString("configured");
@@ -157,6 +483,147 @@ class ConfigTest {
         assertThat(config.doCheckExpression("!||&&").getMessage(), containsString("Invalid label expression"));
     }
 
+    @Test
+    void parseImplications() throws IOException {
+        String lines = String.join(
+                "\n",
+                "# Generated",
+                "",
+                "rhel64 || rhel65 => rhel6",
+                "{\"expression\": \"rhel6\", \"atoms\": \"rhel linux\"}",
+                "||| => broken",
+                "rhel",
+                "rhel => ",
+                "{broken",
+                "rhel => linux => unix");
+        List<String> errors = new ArrayList<>();
+        List<Implication> parsed = Config.parseImplications(new BufferedReader(new StringReader(lines)), errors);
+
+        assertThat(
+                parsed,
+                sameMembers(new Implication("rhel64 || rhel65", "rhel6"), new Implication("rhel6", "rhel linux")));
+        assertThat(
+                errors,
+                contains(
+                        startsWith("Line 5:"),
+                        startsWith("Line 6:"),
+                        startsWith("Line 7:"),
+                        startsWith("Line 8:"),
+                        startsWith("Line 9: Expected 'expression => labels'")));
+    }
+
+    @Test
+    void importAndExport() throws Exception {
+        j.jenkins.setCrumbIssuer(null);
+        List<Implication> valid = new ArrayList<>();
+        for (Implication i : implications) {
+            if (i.expression() != null) valid.add(i);
+        }
+
+        try (WebClient wc = j.createWebClient()) {
+            String exported = wc.goTo("label-implications/export", "text/plain")
+                    .getWebResponse()
+                    .getContentAsString();
+            assertThat(exported, containsString("fedora17||fedora18 => fedora"));
+
+            config.implications(Collections.emptyList());
+            WebRequest req = new WebRequest(new URL(j.getURL(), "label-implications/import"), HttpMethod.POST);
+            req.setAdditionalHeader("Content-Type", "text/plain");
+            req.setRequestBody(exported);
+            wc.getPage(req);
+            assertThat(config.implications(), sameMembers(valid));
+
+            wc.getOptions().setThrowExceptionOnFailingStatusCode(false);
+            wc.getOptions().setPrintContentOnFailingStatusCode(false);
+            req.setRequestBody("a => b\n||| => broken\n");
+            WebResponse rsp = wc.getPage(req).getWebResponse();
+            assertThat(rsp.getStatusCode(), equalTo(400));
+            assertThat(rsp.getContentAsString(), containsString("Line 2: Invalid label expression"));
+            assertThat(config.implications(), sameMembers(valid));
+        }
+    }
+
+    @Test
+    void checkImplications() throws Exception {
+        JSONArray rows = new JSONArray();
+        rows.add(row("a", "b", ""));
+        rows.add(row("b && c", "d", ""));
+        rows.add(row("", "", "")); // Just added
+        rows.add(row("d", "a", ""));
+        rows.add(row("a", "b", ""));
+        rows.add(row("|||", "e", ""));
+        rows.add(row("a", "", ""));
+        rows.add(row("a", "f", "|||"));
+        rows.add(row("missing", "g", ""));
+        rows.add(row("!missing", "h", ""));
+        rows.add(row("a && missing", "i", ""));
+
+        FormValidation validation = config.checkImplications(rows, labels("a", "c"));
+        assertThat(validation.kind, equalTo(FormValidation.Kind.ERROR));
+        String message = validation.renderHtml();
+        assertThat(message, containsString("Implication 5 duplicates implication 1"));
+        assertThat(message, containsString("Implication 6: Invalid label expression: |||"));
+        assertThat(message, containsString("Implication 7: No labels to imply"));
+        assertThat(message, containsString("Implication 8: Invalid scope: |||"));
+        assertThat(message, containsString("Implication 9 never applies"));
+        assertThat(message, not(containsString("Implication 10")));
+        assertThat(message, containsString("Implication 11 never applies"));
+        assertThat(message, containsString("Implications form a cycle"));
+
+        rows.remove(3);
+        assertThat(config.checkImplications(rows, labels("a", "c")).renderHtml(), not(containsString("cycle")));
+
+        j.jenkins.setCrumbIssuer(null);
+        try (WebClient wc = j.createWebClient()) {
+            WebRequest req =
+                    new WebRequest(new URL(j.getURL(), "label-implications/checkImplications"), HttpMethod.POST);
+            req.setAdditionalHeader("Content-Type", "application/json");
+            req.setRequestBody(rows.toString());
+            String rsp = wc.getPage(req).getWebResponse().getContentAsString();
+            assertThat(rsp, containsString("Implication 4 duplicates implication 1"));
+
+            req.setRequestBody("[" + row(controllerLabel, "x", "") + "]");
+            assertThat(wc.getPage(req).getWebResponse().getContentAsString(), not(containsString("Implication")));
+        }
+    }
+
+    private static JSONObject row(String expression, String atoms, String scope) {
+        JSONObject row = new JSONObject();
+        row.put("expression", expression);
+        row.put("atoms", atoms);
+        row.put("scope", scope);
+        return row;
+    }
+
+    @Test
+    void inferLabelsBatch() throws Exception {
+        j.jenkins.setCrumbIssuer(null);
+        j.createSlave("f1", "fedora17", NO_ENV);
+
+        try (WebClient wc = j.createWebClient()) {
+            WebRequest req = new WebRequest(new URL(j.getURL(), "label-implications/inferLabelsBatch"), HttpMethod.POST);
+            req.setAdditionalHeader("Content-Type", "text/plain");
+            req.setRequestBody("rhel65\n\nfedora17 rhel\n");
+            assertThat(
+                    wc.getPage(req).getWebResponse().getContentAsString().lines().toList(),
+                    contains("rhel65 => linux rhel rhel6", "fedora17 rhel => fedora linux"));
+
+            req.setUrl(new URL(j.getURL(), "label-implications/inferLabelsBatch?nodes=true"));
+            req.setRequestBody("f1\nmissing\n");
+            assertThat(
+                    wc.getPage(req).getWebResponse().getContentAsString().lines().toList(),
+                    contains("f1 => fedora linux", "# No such node: missing"));
+        }
+    }
+
+    @Test
+    void inferLabelsForLabelStringsIsNotCached() {
+        int size = config.cacheSize();
+        assertThat(config.inferLabels("rhel64 adhoc", false), sameMembers(labels("rhel6", "rhel", "linux")));
+        assertThat(config.inferLabels("adhoc rhel64", false), sameMembers(labels("rhel6", "rhel", "linux")));
+        assertThat(config.cacheSize(), equalTo(size));
+    }
+
     @Test
     void notAuthorizedToRead() {
         // Create a security realm that allows no read
@@ -193,6 +660,11 @@ class ConfigTest {
             FailingHttpStatusCodeException ex2 =
                     assertThrows(FailingHttpStatusCodeException.class, () -> wc.goTo("label-implications/configure"));
             assertThat(ex2.getStatusMessage(), equalTo("Forbidden"));
+
+            FailingHttpStatusCodeException ex3 = assertThrows(
+                    FailingHttpStatusCodeException.class,
+                    () -> wc.goTo("label-implications/inferLabels?labelString=rhel64"));
+            assertThat(ex3.getStatusMessage(), equalTo("Forbidden"));
         }
     }
 
@@ -267,6 +739,54 @@ class ConfigTest {
         }
     }
 
+    @Test
+    void flightRecorderEvents() throws Exception {
+        j.jenkins.setLabelString("rhel65");
+        Path file = Files.createTempFile("implied-labels", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("org.jenkinsci.plugins.impliedlabels.Evaluate");
+            recording.enable("org.jenkinsci.plugins.impliedlabels.Reconfigure");
+            recording.enable("org.jenkinsci.plugins.impliedlabels.DetectRedundantLabels");
+            recording.start();
+
+            config.implications(implications);
+            config.evaluate(j.jenkins);
+            config.evaluate(j.jenkins);
+            config.detectRedundantLabels(j.jenkins);
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> reconfigure = events(events, "Reconfigure");
+            assertThat(reconfigure.size(), equalTo(1));
+            assertThat(reconfigure.get(0).getInt("implications"), equalTo(implications.size()));
+
+            boolean hit = false;
+            for (RecordedEvent event : events(events, "Evaluate")) {
+                assertThat(event.getInt("closureSize"), equalTo(5));
+                hit |= event.getBoolean("cacheHit");
+            }
+            assertThat(hit, is(true));
+
+            List<RecordedEvent> redundant = events(events, "DetectRedundantLabels");
+            assertThat(redundant.size(), equalTo(1));
+            assertThat(redundant.get(0).getInt("redundantLabels"), equalTo(0));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name) {
+        List<RecordedEvent> matching = new ArrayList<>();
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("org.jenkinsci.plugins.impliedlabels." + name)) {
+                matching.add(event);
+            }
+        }
+        return matching;
+    }
+
     @Test
     void testManagementCategory() {
         assertThat(config.getCategory(), is(ManagementLink.Category.CONFIGURATION));
@@ -310,7 +830,7 @@ class ConfigTest {
         private final Map<Collection<LabelAtom>, Throwable> log = new HashMap<>();
 
         public TrackingImplication() {
-            super("", "");
+            super("", "tracked");
         }
 
         @NonNull
@@ -23,5 +23,7 @@ class ConfigurationAsCodeTest {
         assertEquals("test1||test2", plugin.getConfig().implications().get(0).expressionString());
         assertEquals("test3||test4", plugin.getConfig().implications().get(1).expressionString());
         assertEquals("test5||test6", plugin.getConfig().implications().get(2).expressionString());
+        assertEquals("", plugin.getConfig().implications().get(0).scopeString());
+        assertEquals("linux&&!windows", plugin.getConfig().implications().get(2).scopeString());
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import static hudson.cli.CLICommandInvoker.Matcher.failedWith;
+import static hudson.cli.CLICommandInvoker.Matcher.succeeded;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.EnvVars;
+import hudson.cli.CLICommandInvoker;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import jenkins.model.Jenkins;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class InferLabelsCommandTest {
+
+    private JenkinsRule j;
+
+    @BeforeEach
+    void setUp(JenkinsRule j) throws Exception {
+        this.j = j;
+        ImpliedLabelsPlugin.get()
+                .getConfig()
+                .implications(Arrays.asList(
+                        new Implication("rhel64 || rhel65", "rhel6"),
+                        new Implication("rhel6", "rhel"),
+                        new Implication("rhel || fedora", "linux")));
+    }
+
+    @Test
+    void labelStrings() {
+        CLICommandInvoker.Result result = command().invokeWithArgs("rhel65", "fedora", "windows");
+
+        assertThat(result, succeeded());
+        assertThat(result.stdout(), equalTo(lines("rhel65 => linux rhel rhel6", "fedora => linux", "windows => ")));
+    }
+
+    @Test
+    void nodesFromStdin() throws Exception {
+        j.createSlave("agent", "rhel64", new EnvVars());
+
+        CLICommandInvoker.Result result = command()
+                .withStdin(new ByteArrayInputStream("agent\nmissing\n".getBytes(StandardCharsets.UTF_8)))
+                .invokeWithArgs("-node");
+
+        assertThat(result, succeeded());
+        assertThat(result.stdout(), equalTo(lines("agent => linux rhel rhel6", "# No such node: missing")));
+    }
+
+    @Test
+    void notAuthorized() {
+        CLICommandInvoker.Result result = command().authorizedTo(Jenkins.READ).invokeWithArgs("rhel65");
+
+        assertThat(result, failedWith(6));
+    }
+
+    private CLICommandInvoker command() {
+        return new CLICommandInvoker(j, new InferLabelsCommand());
+    }
+
+    private static String lines(String... lines) {
+        return String.join(System.lineSeparator(), lines) + System.lineSeparator();
+    }
+}
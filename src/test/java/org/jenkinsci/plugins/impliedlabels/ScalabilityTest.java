@@ -0,0 +1,324 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import hudson.ExtensionList;
+import hudson.model.FreeStyleProject;
+import hudson.model.Node;
+import hudson.model.labels.LabelAtom;
+import hudson.slaves.DumbSlave;
+import hudson.slaves.JNLPLauncher;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.JenkinsRule.WebClient;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Measure how the plugin scales with large fleets and rule sets.
+ *
+ * Run using {@code mvn test -Pscalability}. Evaluating labels of twice as many nodes must not take more than
+ * {@code -Dscalability.growth} times twice the time and allocations (1.5 by default), whatever machine the tests run on.
+ * Measured values are written to {@code target/scalability-results.properties} and compared against
+ * {@code scalability-baseline.properties} allowing {@code -Dscalability.tolerance} times the baseline (2 by default).
+ * Values without baseline are only recorded.
+ */
+@Tag("scalability")
+@WithJenkins
+class ScalabilityTest {
+
+    private static final int NODES = Integer.getInteger("scalability.nodes", 2000);
+    private static final int THREADS = Integer.getInteger("scalability.threads", 8);
+    private static final double TOLERANCE = Double.parseDouble(System.getProperty("scalability.tolerance", "2"));
+    private static final double GROWTH = Double.parseDouble(System.getProperty("scalability.growth", "1.5"));
+    private static final int REPETITIONS = 3;
+
+    private static final Logger LOGGER = Logger.getLogger(ScalabilityTest.class.getName());
+
+    private static final int FAMILIES = 40;
+    private static final int VERSIONS = 10;
+    private static final int KINDS = 4;
+    private static final String[] ARCHS = {"amd64", "x86_64", "aarch64", "ppc64le", "s390x"};
+    private static final String[] EXTRAS = {"docker", "gpu", "ssd", "highmem", "fips"};
+
+    private static final Properties BASELINE = new Properties();
+    private static final Properties RESULTS = new Properties();
+
+    private JenkinsRule j;
+    private Config config;
+    private List<Implication> rules;
+    private List<Node> nodes;
+
+    @BeforeEach
+    void setUp(JenkinsRule j) throws Exception {
+        this.j = j;
+        synchronized (BASELINE) {
+            if (BASELINE.isEmpty()) {
+                try (InputStream in = ScalabilityTest.class.getResourceAsStream("scalability-baseline.properties")) {
+                    assertNotNull(in, "No baseline found");
+                    BASELINE.load(in);
+                }
+            }
+        }
+
+        config = ImpliedLabelsPlugin.get().getConfig();
+        rules = rules();
+        config.implications(rules);
+
+        nodes = fleet(new Random(42));
+        j.jenkins.setNodes(nodes);
+    }
+
+    @AfterAll
+    static void writeResults() throws IOException {
+        Path file = Paths.get("target", "scalability-results.properties");
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file)) {
+            RESULTS.store(out, "Measured values, copy them to scalability-baseline.properties to accept");
+        }
+    }
+
+    @Test
+    void findLabels() throws Exception {
+        Implier implier = ExtensionList.lookupSingleton(Implier.class);
+
+        cold();
+        measure("findLabels.cold", () -> {
+            for (Node node : nodes) {
+                implier.findLabels(node);
+            }
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            long[] allocated = new long[1];
+            measureTime("findLabels.concurrent", () -> {
+                List<Future<Long>> futures = new ArrayList<>();
+                for (int t = 0; t < THREADS; t++) {
+                    futures.add(pool.submit(() -> {
+                        long before = allocatedBytes();
+                        for (Node node : nodes) {
+                            implier.findLabels(node);
+                        }
+                        return allocatedBytes() - before;
+                    }));
+                }
+                for (Future<Long> future : futures) {
+                    allocated[0] += future.get();
+                }
+            });
+            check("findLabels.concurrent.bytes", allocated[0]);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        Node node = nodes.get(0);
+        assertThat(implier.findLabels(node), hasItem(j.jenkins.getLabelAtom("family0")));
+    }
+
+    @Test
+    void findLabelsGrowsLinearly() throws Exception {
+        Implier implier = ExtensionList.lookupSingleton(Implier.class);
+        List<Node> half = nodes.subList(0, NODES / 2);
+
+        coldFindLabels(implier, nodes); // Warm up
+        long[] small = coldFindLabels(implier, half);
+        long[] large = coldFindLabels(implier, nodes);
+
+        String[] units = {"nanos", "bytes"};
+        for (int i = 0; i < units.length; i++) {
+            double ratio = (double) large[i] / Math.max(1, small[i]);
+            assertThat(
+                    "findLabels.cold " + units[i] + " grow superlinearly: " + half.size() + " nodes " + small[i] + ", "
+                            + nodes.size() + " nodes " + large[i],
+                    ratio,
+                    lessThanOrEqualTo(2 * GROWTH));
+        }
+    }
+
+    /**
+     * Least time and allocations of evaluating labels of nodes with empty cache, out of several repetitions.
+     */
+    private long[] coldFindLabels(Implier implier, List<Node> nodes) throws Exception {
+        long[] least = {Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int r = 0; r < REPETITIONS; r++) {
+            cold();
+            long start = System.nanoTime();
+            long allocated = allocatedBytes();
+            for (Node node : nodes) {
+                implier.findLabels(node);
+            }
+            least[1] = Math.min(least[1], allocatedBytes() - allocated);
+            least[0] = Math.min(least[0], System.nanoTime() - start);
+        }
+        return least;
+    }
+
+    /**
+     * Drop cached closures. Applying the same implications keeps the cache.
+     */
+    private void cold() throws IOException {
+        config.implications(Collections.emptyList());
+        config.implications(rules);
+    }
+
+    @Test
+    void scheduleLabelRestrictedBuilds() throws Exception {
+        List<FreeStyleProject> projects = new ArrayList<>();
+        for (int p = 0; p < 50; p++) {
+            FreeStyleProject project = j.createFreeStyleProject();
+            project.setAssignedLabel(j.jenkins.getLabel("kind" + p % KINDS + " && x64"));
+            projects.add(project);
+        }
+
+        measure("queue.maintain", () -> {
+            for (FreeStyleProject project : projects) {
+                project.scheduleBuild2(0);
+            }
+            j.jenkins.getQueue().maintain();
+        });
+
+        assertEquals(projects.size(), j.jenkins.getQueue().getItems().length);
+    }
+
+    @Test
+    void reconfigure() throws Exception {
+        // Applying the same implications keeps the cache, reconfigure with a rule added
+        List<Implication> shuffled = new ArrayList<>(rules);
+        shuffled.add(new Implication("gpu && highmem", "ml"));
+        Collections.shuffle(shuffled, new Random(42));
+
+        measure("reconfigure", () -> config.implications(shuffled));
+
+        assertEquals(rules.size() + 1, config.implications().size());
+    }
+
+    @Test
+    void renderIndex() throws Exception {
+        try (WebClient wc = j.createWebClient()) {
+            // Page is rendered on a server thread, allocations of this thread would measure the client
+            measureTime("index", () -> wc.goTo("label-implications"));
+        }
+    }
+
+    private static List<Implication> rules() {
+        List<Implication> rules = new ArrayList<>();
+        for (int f = 0; f < FAMILIES; f++) {
+            List<String> versions = new ArrayList<>();
+            for (int v = 0; v < VERSIONS; v++) {
+                rules.add(new Implication("family" + f + "_" + v, "family" + f + "_" + v + "_x"));
+                versions.add("family" + f + "_" + v);
+            }
+            rules.add(new Implication(String.join(" || ", versions), "family" + f));
+        }
+        for (int k = 0; k < KINDS; k++) {
+            List<String> families = new ArrayList<>();
+            for (int f = k; f < FAMILIES; f += KINDS) {
+                families.add("family" + f);
+            }
+            rules.add(new Implication(String.join(" || ", families), "kind" + k));
+        }
+        rules.add(new Implication("amd64 || x86_64", "x64"));
+        rules.add(new Implication("kind0 && x64 && docker", "container-host"));
+        rules.add(new Implication("!kind0 && !fips", "general-purpose"));
+        return rules;
+    }
+
+    private static List<Node> fleet(Random random) throws Exception {
+        List<Node> nodes = new ArrayList<>(NODES);
+        for (int n = 0; n < NODES; n++) {
+            DumbSlave node = new DumbSlave("agent" + n, "/home/jenkins/agent", new JNLPLauncher());
+            StringBuilder labels = new StringBuilder();
+            // Skewed towards a few popular families as real fleets are
+            int family = Math.min(random.nextInt(FAMILIES), random.nextInt(FAMILIES));
+            labels.append("family").append(family).append('_').append(random.nextInt(VERSIONS));
+            labels.append(' ').append(ARCHS[random.nextInt(ARCHS.length)]);
+            for (String extra : EXTRAS) {
+                if (random.nextInt(4) == 0) labels.append(' ').append(extra);
+            }
+            node.setLabelString(labels.toString());
+            nodes.add(node);
+        }
+        // Make sure the assertion in findLabels holds
+        ((DumbSlave) nodes.get(0)).setLabelString("family0_0 amd64");
+        return nodes;
+    }
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private static void measure(String metric, Task task) throws Exception {
+        long allocated = allocatedBytes();
+        measureTime(metric, task);
+        check(metric + ".bytes", allocatedBytes() - allocated);
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static void measureTime(String metric, Task task) throws Exception {
+        long start = System.nanoTime();
+        task.run();
+        check(metric + ".millis", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void check(String metric, long value) {
+        RESULTS.setProperty(metric, Long.toString(value));
+
+        String baseline = BASELINE.getProperty(metric);
+        if (baseline == null) {
+            LOGGER.info("No baseline for " + metric + ", measured " + value);
+            return;
+        }
+        long limit = (long) (Long.parseLong(baseline) * TOLERANCE);
+        assertThat(metric + " regressed, baseline is " + baseline, value, lessThanOrEqualTo(limit));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014 Red Hat, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.impliedlabels;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import hudson.model.Label;
+import hudson.slaves.Cloud;
+import hudson.slaves.NodeProvisioner.PlannedNode;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class TemplateLabelsTest {
+
+    private JenkinsRule j;
+    private Config config;
+
+    @BeforeEach
+    void setUp(JenkinsRule j) throws Exception {
+        this.j = j;
+        config = ImpliedLabelsPlugin.get().getConfig();
+        config.implications(Arrays.asList(
+                new Implication("ubuntu || debian", "linux"), new Implication("linux && amd64", "docker")));
+    }
+
+    @Test
+    void matches() throws Exception {
+        assertThat(TemplateLabels.matches(j.jenkins.getLabel("linux"), "ubuntu"), is(true));
+        assertThat(TemplateLabels.matches(j.jenkins.getLabel("docker"), "ubuntu amd64"), is(true));
+        assertThat(TemplateLabels.matches(j.jenkins.getLabel("docker"), "ubuntu"), is(false));
+        assertThat(TemplateLabels.matches(j.jenkins.getLabel("linux && !docker"), "debian"), is(true));
+        assertThat(TemplateLabels.matches(null, "windows"), is(true));
+        assertThat(TemplateLabels.of(null), equalTo(Collections.emptySet()));
+    }
+
+    @Test
+    void cachedUntilImplicationsChange() throws Exception {
+        Collection<?> closure = TemplateLabels.of("ubuntu amd64");
+        assertThat(TemplateLabels.of("ubuntu amd64"), sameInstance(closure));
+
+        config.implications(Collections.singletonList(new Implication("ubuntu", "debian-based")));
+        assertThat(TemplateLabels.of("ubuntu amd64"), not(sameInstance(closure)));
+        assertThat(TemplateLabels.of("ubuntu amd64"), hasItem(j.jenkins.getLabelAtom("debian-based")));
+    }
+
+    @Test
+    void cloudCount() throws Exception {
+        j.jenkins.clouds.add(new TemplateCloud("ubuntu-cloud", "ubuntu amd64"));
+
+        Implication implication = config.implications().get(1);
+        assertThat(implication.atomsString(), equalTo("docker"));
+        assertThat(implication.labelSize(), equalTo(1));
+        assertThat(j.jenkins.getLabel("docker").getClouds(), hasItem(j.jenkins.getCloud("ubuntu-cloud")));
+    }
+
+    private static final class TemplateCloud extends Cloud {
+        private final String labelString;
+
+        private TemplateCloud(String name, String labelString) {
+            super(name);
+            this.labelString = labelString;
+        }
+
+        @Override
+        public boolean canProvision(CloudState state) {
+            return TemplateLabels.matches(state.getLabel(), labelString);
+        }
+
+        @Override
+        public Collection<PlannedNode> provision(CloudState state, int excessWorkload) {
+            return Collections.emptyList();
+        }
+    }
+}